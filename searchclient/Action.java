@@ -61,6 +61,9 @@ public enum Action
     PullWN("Pull(W,N)", ActionType.Pull, 0, -1, -1, 0),
     PullWS("Pull(W,S)", ActionType.Pull, 0, -1, 1, 0);
 
+    // values() clones the array on every call, the expansion loops use this copy instead. Do not modify it.
+    static final Action[] VALUES = values();
+
     public final String name;
     public final ActionType type;
     public final int agentRowDelta; // vertical displacement of agent (-1,0,+1)
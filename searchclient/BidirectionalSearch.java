@@ -0,0 +1,197 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/*
+    Bidirectional breadth-first search for sub goals where the agent only has to walk to a cell.
+
+    The full search expands every action of the agent at every time step, and the time step is part of a
+    single-agent state, so walking through a corridor the agent has been in before still gives new states.
+    Walking needs none of that: with the boxes standing still the cells form a fixed grid, and a breadth-
+    first search from the agent and one from the goal, one layer at a time from the smaller side, meet
+    halfway after visiting a fraction of the cells a one-sided search would.
+
+    The grid does not know about the constraints of CBS, which are about a cell at a time. So when the two
+    searches meet, the walk through the meeting cell is replayed from the root with the same applicability
+    checks as the full search (State.isApplicable), and the state it ends in must satisfy the goal. The first
+    shortest walk that passes is returned. If none does, or there is no walk at all (a box is in the way or
+    the agent would have to wait), navigate returns null and the caller falls back to the full search.
+*/
+public class BidirectionalSearch
+{
+    private static final Action[] MOVES = {Action.MoveN, Action.MoveS, Action.MoveE, Action.MoveW};
+
+    private final State root;
+    private final StaticLevel level;
+    private final int start;
+    private final int goalCell;
+
+    private final int[][] distance = new int[2][];
+    private final int[][] parent = new int[2][];
+    private final int[][] queue = new int[2][];
+    private final int[] head = new int[2];
+    private final int[] tail = new int[2];
+
+    /*
+        Walks the agent of the single-agent state root to the goal cell of subGoal. Returns the state at the
+        goal with its plan from the start of the level (extractPlan), or null if the full search is needed.
+    */
+    public static State navigate(State root, SubGoal subGoal, Predicate<State> goal)
+    {
+        int goalCell = root.level.cell((int) subGoal.goal.getX(), (int) subGoal.goal.getY());
+        return new BidirectionalSearch(root, goalCell).run(goal);
+    }
+
+    private BidirectionalSearch(State root, int goalCell)
+    {
+        this.root = root;
+        this.level = root.level;
+        this.start = this.level.cell(root.agentRows[0], root.agentCols[0]);
+        this.goalCell = goalCell;
+        int numCells = this.level.numRows * this.level.numCols;
+        for (int side = 0; side < 2; side++)
+        {
+            this.distance[side] = new int[numCells];
+            Arrays.fill(this.distance[side], -1);
+            this.parent[side] = new int[numCells];
+            this.queue[side] = new int[numCells];
+        }
+    }
+
+    private State run(Predicate<State> goal)
+    {
+        if (this.start == this.goalCell || !this.isFree(this.goalCell))
+        {
+            return null;
+        }
+        this.visit(0, this.start, -1, 0);
+        this.visit(1, this.goalCell, -1, 0);
+
+        // Side 0 searches from the agent, side 1 from the goal.
+        ArrayList<Integer> meetings = new ArrayList<>();
+        while (meetings.isEmpty() && this.head[0] < this.tail[0] && this.head[1] < this.tail[1])
+        {
+            int side = this.tail[0] - this.head[0] <= this.tail[1] - this.head[1] ? 0 : 1;
+            this.expandLayer(side, meetings);
+        }
+
+        // Meetings found in the same layer can differ in length by one.
+        meetings.sort((a, b) -> this.length(a) - this.length(b));
+        for (int meeting : meetings)
+        {
+            State state = this.replay(meeting, goal);
+            if (state != null)
+            {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private void expandLayer(int side, ArrayList<Integer> meetings)
+    {
+        int end = this.tail[side];
+        while (this.head[side] < end)
+        {
+            int cell = this.queue[side][this.head[side]++];
+            int row = this.level.row(cell);
+            int col = this.level.col(cell);
+            int mask = this.level.actionMask(row, col);
+            for (Action move : MOVES)
+            {
+                if ((mask & (1 << move.ordinal())) == 0)
+                {
+                    continue;
+                }
+                int next = this.level.cell(row + move.agentRowDelta, col + move.agentColDelta);
+                if (this.distance[side][next] >= 0 || !this.isFree(next))
+                {
+                    continue;
+                }
+                this.visit(side, next, cell, this.distance[side][cell] + 1);
+                if (this.distance[1 - side][next] >= 0)
+                {
+                    meetings.add(next);
+                }
+            }
+        }
+    }
+
+    private void visit(int side, int cell, int from, int distance)
+    {
+        this.distance[side][cell] = distance;
+        this.parent[side][cell] = from;
+        this.queue[side][this.tail[side]++] = cell;
+    }
+
+    // Boxes do not move while the agent walks, a cell with a box is as good as a wall.
+    private boolean isFree(int cell)
+    {
+        return this.root.boxes[this.level.row(cell)][this.level.col(cell)] == 0;
+    }
+
+    private int length(int meeting)
+    {
+        return this.distance[0][meeting] + this.distance[1][meeting];
+    }
+
+    // The walk through the meeting cell from the root, see walk.
+    private State replay(int meeting, Predicate<State> goal)
+    {
+        int[] cells = new int[this.length(meeting) + 1];
+        int pos = this.distance[0][meeting];
+        for (int cell = meeting; cell >= 0; cell = this.parent[0][cell])
+        {
+            cells[pos--] = cell;
+        }
+        pos = this.distance[0][meeting];
+        for (int cell = meeting; cell >= 0; cell = this.parent[1][cell])
+        {
+            cells[pos++] = cell;
+        }
+        return walk(this.root, cells, goal);
+    }
+
+    /*
+        Walks the agent of root through cells, the first of which is its own, with the applicability checks of
+        the full search. Returns the state at the end with its plan, or null if a step or the end is not allowed.
+    */
+    static State walk(State root, int[] cells, Predicate<State> goal)
+    {
+        Action[][] plan = Arrays.copyOf(root.extractPlan(), root.g + cells.length - 1);
+        State state = root;
+        for (int i = 1; i < cells.length; i++)
+        {
+            Action move = move(root.level, cells[i - 1], cells[i]);
+            if (!state.isApplicable(move))
+            {
+                return null;
+            }
+            Action[] jointAction = {move};
+            plan[state.g] = jointAction;
+            state = state.child(jointAction);
+        }
+        if (!goal.test(state))
+        {
+            return null;
+        }
+        new SearchNodes(state, plan);
+        return state;
+    }
+
+    private static Action move(StaticLevel level, int from, int to)
+    {
+        int rowDelta = level.row(to) - level.row(from);
+        int colDelta = level.col(to) - level.col(from);
+        for (Action move : MOVES)
+        {
+            if (move.agentRowDelta == rowDelta && move.agentColDelta == colDelta)
+            {
+                return move;
+            }
+        }
+        throw new IllegalArgumentException("Cells " + from + " and " + to + " are not next to each other.");
+    }
+}
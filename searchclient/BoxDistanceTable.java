@@ -0,0 +1,135 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/*
+    The number of actions an agent alone needs to bring a box to one goal cell by pushing and pulling it,
+    for every cell of the box and side of it the agent stands on (DistanceTable.boxDistances).
+
+    The plain estimate of a box sub goal, agent to box plus box to goal, walks the box as if it were an agent.
+    But a push needs the agent behind the box and a free cell ahead of it, and a pull a free cell behind the
+    agent, and getting from one side of the box to another is a walk around it, if there is one. In a
+    corridor the box only goes the way the agent is facing it, and a box in a pocket it can not be pulled out
+    of never reaches the goal at all.
+
+    The table is a Dijkstra search backwards from the goal over (box cell, agent side), with every side of
+    the box on the goal at cost 0. A push or pull may turn the box, so a state is reached in one action by a
+    push from the cell the agent is on, with the agent on any other side of it, and by a pull from every
+    other side of the box, with the agent on the cell of the box. Walking to another side costs the walk
+    around the box (BoxMoves). h then adds the walk of the agent to the side it starts from, from the plain
+    distances, which may go through the box and so is never more than the real walk.
+
+    Only the walls of the level the DistanceTable was computed for are used. Other boxes, other agents and
+    the walls added by GraphSearch for finished sub goals can only make the plan longer, so h is a lower
+    bound on the actions of the agent.
+*/
+public class BoxDistanceTable
+{
+    // h when the box can not reach the goal from where it is. Large, but far from overflowing an f.
+    public static final int DEAD_END = 1 << 20;
+
+    private final DistanceTable distances;
+    private final BoxMoves moves;
+    // Free id of the goal cell.
+    private final int goal;
+    // Actions from the box on id b with the agent on side s to the box on the goal, at b * 4 + s.
+    private final int[] costs;
+
+    BoxDistanceTable(DistanceTable distances, BoxMoves moves, int goalCell)
+    {
+        this.distances = distances;
+        this.moves = moves;
+        this.goal = distances.ids[goalCell];
+        this.costs = new int[moves.numFree * 4];
+        Arrays.fill(this.costs, DistanceTable.UNREACHABLE);
+
+        int[] neighbours = moves.neighbours;
+        PriorityQueue<long[]> open = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int side = 0; side < 4; side++)
+        {
+            if (neighbours[this.goal * 4 + side] >= 0)
+            {
+                this.costs[this.goal * 4 + side] = 0;
+                open.add(new long[]{0, this.goal * 4 + side});
+            }
+        }
+        while (!open.isEmpty())
+        {
+            long[] top = open.poll();
+            // A node is a box id and side, and the neighbour at the same index is the cell of the agent.
+            int node = (int) top[1];
+            int cost = this.costs[node];
+            if (top[0] != cost)
+            {
+                continue;
+            }
+            int box = node / 4;
+            int side = node % 4;
+            int agent = neighbours[node];
+
+            // Pushed here: the box was on the cell of the agent, and the agent on any other side of it.
+            for (int behind = 0; behind < 4; behind++)
+            {
+                if (behind != (side ^ 1) && neighbours[agent * 4 + behind] >= 0)
+                {
+                    this.relax(open, agent * 4 + behind, cost + 1);
+                }
+            }
+            for (int other = 0; other < 4; other++)
+            {
+                int from = neighbours[box * 4 + other];
+                if (other == side || from < 0)
+                {
+                    continue;
+                }
+                // Pulled here: the box was on another side, and the agent on the cell of the box.
+                this.relax(open, from * 4 + (other ^ 1), cost + 1);
+                // Walked around the box from another side.
+                int walk = moves.turn(box, other, side);
+                if (walk != DistanceTable.UNREACHABLE)
+                {
+                    this.relax(open, box * 4 + other, cost + walk);
+                }
+            }
+        }
+    }
+
+    private void relax(PriorityQueue<long[]> open, int node, int cost)
+    {
+        if (cost < this.costs[node])
+        {
+            this.costs[node] = cost;
+            open.add(new long[]{cost, node});
+        }
+    }
+
+    /*
+        Actions the agent on agentCell needs at least to bring the box on boxCell to the goal: 0 when the box
+        is on it, DEAD_END when it can not get there.
+    */
+    public int h(int agentCell, int boxCell)
+    {
+        int box = this.distances.ids[boxCell];
+        if (box == this.goal)
+        {
+            return 0;
+        }
+        int agent = this.distances.ids[agentCell];
+        int best = DistanceTable.UNREACHABLE;
+        for (int side = 0; side < 4; side++)
+        {
+            int cost = this.costs[box * 4 + side];
+            if (cost == DistanceTable.UNREACHABLE)
+            {
+                continue;
+            }
+            int walk = this.distances.entry(agent, this.moves.neighbours[box * 4 + side]);
+            if (walk != DistanceTable.UNREACHABLE)
+            {
+                best = Math.min(best, walk + cost);
+            }
+        }
+        return best == DistanceTable.UNREACHABLE ? DEAD_END : best;
+    }
+}
@@ -0,0 +1,88 @@
+package searchclient;
+
+import java.util.Arrays;
+
+/*
+    Moves of a box through the walls of a level, shared by its BoxDistanceTables: the free neighbours of every
+    free cell, and for a box on every free cell the walk of the agent from each side of it to each other side.
+    The walks are a breadth-first search from every side with the cell of the box blocked, which stops once
+    it has found the other sides.
+*/
+final class BoxMoves
+{
+    final int numFree;
+    // Free ids of the 4 neighbours of every free id (north, south, west, east), -1 for walls.
+    final int[] neighbours;
+    // Walk from side a to side b of a box on id c at (c * 4 + a) * 4 + b, UNREACHABLE for walls and cut off sides.
+    private final int[] turns;
+
+    BoxMoves(int[] ids, int numCols, int numFree)
+    {
+        this.numFree = numFree;
+        this.neighbours = DistanceTable.neighbours(ids, numCols, numFree);
+        this.turns = new int[numFree * 16];
+        Arrays.fill(this.turns, DistanceTable.UNREACHABLE);
+
+        int[] queue = new int[numFree];
+        int[] distance = new int[numFree];
+        // Search that last reached each id, so the arrays are not cleared between searches.
+        int[] seen = new int[numFree];
+        int search = 0;
+        for (int box = 0; box < numFree; box++)
+        {
+            for (int from = 0; from < 4; from++)
+            {
+                int start = this.neighbours[box * 4 + from];
+                if (start < 0)
+                {
+                    continue;
+                }
+                int left = 0;
+                for (int to = 0; to < 4; to++)
+                {
+                    if (to != from && this.neighbours[box * 4 + to] >= 0)
+                    {
+                        left++;
+                    }
+                }
+                this.turns[(box * 4 + from) * 4 + from] = 0;
+
+                search++;
+                int head = 0;
+                int tail = 0;
+                seen[box] = search;
+                seen[start] = search;
+                distance[start] = 0;
+                queue[tail++] = start;
+                while (head < tail && left > 0)
+                {
+                    int id = queue[head++];
+                    for (int d = 0; d < 4; d++)
+                    {
+                        int next = this.neighbours[id * 4 + d];
+                        if (next < 0 || seen[next] == search)
+                        {
+                            continue;
+                        }
+                        seen[next] = search;
+                        distance[next] = distance[id] + 1;
+                        queue[tail++] = next;
+                        for (int to = 0; to < 4; to++)
+                        {
+                            if (this.neighbours[box * 4 + to] == next)
+                            {
+                                this.turns[(box * 4 + from) * 4 + to] = distance[next];
+                                left--;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    int turn(int box, int from, int to)
+    {
+        return this.turns[(box * 4 + from) * 4 + to];
+    }
+}
@@ -0,0 +1,36 @@
+package searchclient;
+
+import java.nio.ByteBuffer;
+
+final class ByteDistanceTable
+        extends DistanceTable
+{
+    static final int NONE = 0xFF;
+
+    private final byte[] distances;
+
+    ByteDistanceTable(int numCols, int[] ids, int numFree, byte[] distances)
+    {
+        super(numCols, ids, numFree);
+        this.distances = distances;
+    }
+
+    @Override
+    int entry(int a, int b)
+    {
+        int distance = this.distances[a * this.numFree + b] & 0xFF;
+        return distance == NONE ? UNREACHABLE : distance;
+    }
+
+    // The entries as they are stored by DistanceCache.
+    ByteBuffer entries()
+    {
+        return ByteBuffer.wrap(this.distances);
+    }
+
+    @Override
+    public long size()
+    {
+        return this.distances.length;
+    }
+}
@@ -0,0 +1,225 @@
+package searchclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/*
+    Distance tables kept on disk between runs, so a level that has been solved before starts without
+    computing its distances again (see DistanceTable.forLevel).
+
+    The distances only depend on the walls, so a table is stored under the SHA-256 of the size and the
+    walls of the level. The file is a header and the entries of the table as they are in memory, little
+    endian: magic, format version, rows, columns, free cells, bytes per entry (ints), the hash (32 bytes), and
+    then the entries. A later run maps the file read-only and reads the entries straight from the mapping
+    (MappedDistanceTable), so only the pages that are used are ever read.
+
+    A file is written under a temporary name and then moved into place, so a run never sees half a table.
+    Anything that goes wrong with the files is logged and the table is computed as if there were no cache.
+*/
+public class DistanceCache
+{
+    private static final int MAGIC = 0x53434454;
+    private static final int FORMAT = 1;
+    private static final int HASH_BYTES = 32;
+    static final int HEADER_BYTES = 6 * Integer.BYTES + HASH_BYTES;
+
+    // Null when the cache is off.
+    private static Path directory = Path.of(System.getProperty("java.io.tmpdir"), "searchclient-cache");
+
+    public static Path directory()
+    {
+        return directory;
+    }
+
+    public static void setDirectory(Path path)
+    {
+        directory = path;
+    }
+
+    // The table stored for these walls, or null if there is none.
+    public static DistanceTable load(boolean[][] walls)
+    {
+        if (directory == null)
+        {
+            return null;
+        }
+        byte[] hash = hash(walls);
+        Path path = path(hash);
+        if (!Files.exists(path))
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            int[] ids = DistanceTable.ids(walls);
+            int numFree = DistanceTable.numFree(ids);
+            byte[] stored = new byte[HASH_BYTES];
+            int entryBytes = 0;
+            if (map.capacity() >= HEADER_BYTES)
+            {
+                map.get(6 * Integer.BYTES, stored);
+                entryBytes = map.getInt(5 * Integer.BYTES);
+            }
+            if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC || map.getInt(Integer.BYTES) != FORMAT || map.getInt(2 * Integer.BYTES) != walls.length
+                    || map.getInt(3 * Integer.BYTES) != walls[0].length || map.getInt(4 * Integer.BYTES) != numFree
+                    || !Arrays.equals(stored, hash) || (entryBytes != 1 && entryBytes != 2)
+                    || map.capacity() != HEADER_BYTES + (long) numFree * numFree * entryBytes)
+            {
+                System.err.println("Ignoring " + path + ", it is not a distance table of this level.");
+                return null;
+            }
+            return new MappedDistanceTable(walls[0].length, ids, numFree, map, entryBytes);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not read " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static void store(boolean[][] walls, DistanceTable table)
+    {
+        if (directory == null || table instanceof MappedDistanceTable)
+        {
+            return;
+        }
+        ByteBuffer entries;
+        int entryBytes;
+        if (table instanceof ByteDistanceTable bytes)
+        {
+            entries = bytes.entries();
+            entryBytes = 1;
+        }
+        else if (table instanceof ShortDistanceTable shorts)
+        {
+            entries = shorts.entries();
+            entryBytes = 2;
+        }
+        else
+        {
+            return;
+        }
+
+        byte[] hash = hash(walls);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(walls.length).putInt(walls[0].length).putInt(table.numFree)
+              .putInt(entryBytes).put(hash).flip();
+        Path path = path(hash);
+        Path temporary = null;
+        try
+        {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "distances", ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+            {
+                while (header.hasRemaining())
+                {
+                    channel.write(header);
+                }
+                while (entries.hasRemaining())
+                {
+                    channel.write(entries);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.err.println("Stored the distances in " + path + ".");
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not store the distances in " + directory + ": " + e.getMessage());
+            try
+            {
+                if (temporary != null)
+                {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private static Path path(byte[] hash)
+    {
+        return directory.resolve("distances-" + HexFormat.of().formatHex(hash, 0, 16) + ".bin");
+    }
+
+    private static byte[] hash(boolean[][] walls)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(walls.length).putInt(walls[0].length).array());
+            for (boolean[] row : walls)
+            {
+                byte[] bytes = new byte[row.length];
+                for (int col = 0; col < row.length; col++)
+                {
+                    bytes[col] = (byte) (row[col] ? 1 : 0);
+                }
+                digest.update(bytes);
+            }
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
+
+// A distance table read from a file mapped by DistanceCache, entries of one or two bytes, little endian.
+final class MappedDistanceTable
+        extends DistanceTable
+{
+    private final MappedByteBuffer map;
+    private final int entryBytes;
+
+    MappedDistanceTable(int numCols, int[] ids, int numFree, MappedByteBuffer map, int entryBytes)
+    {
+        super(numCols, ids, numFree);
+        this.map = map;
+        this.entryBytes = entryBytes;
+    }
+
+    // Absolute reads do not touch the position of the buffer, so threads can share it.
+    @Override
+    int entry(int a, int b)
+    {
+        int index = a * this.numFree + b;
+        if (this.entryBytes == 1)
+        {
+            int distance = this.map.get(DistanceCache.HEADER_BYTES + index) & 0xFF;
+            return distance == ByteDistanceTable.NONE ? UNREACHABLE : distance;
+        }
+        int distance = this.map.getShort(DistanceCache.HEADER_BYTES + 2 * index) & 0xFFFF;
+        return distance == ShortDistanceTable.NONE ? UNREACHABLE : distance;
+    }
+
+    @Override
+    public long size()
+    {
+        return (long) this.numFree * this.numFree * this.entryBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return super.toString() + ", mapped from disk";
+    }
+}
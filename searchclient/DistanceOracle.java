@@ -0,0 +1,140 @@
+package searchclient;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+    Distances between cells computed on demand, for levels where the full DistanceTable does not fit in the
+    budget (see DistanceTable.forLevel).
+
+    Nearly every query has a goal or a box as its second cell (the target): the heuristics ask for the
+    distance of an agent to a box and of a box to a goal, and the sub goal assignment for the same pairs from
+    the initial state. So the oracle does a breadth-first search from the target the first time it is asked
+    for, and keeps the whole row, the distances of every free cell to it. Only the cells that are used as
+    targets ever get a row. Walks go both ways, so the row of the target gives the distance from any cell.
+
+    The rows are kept in a cache of at most budget() bytes, which forgets the least recently used row when
+    it is full, approximated with the clock algorithm: every hit sets a flag on the row, and the hand skips
+    and clears flagged rows until it finds one that was not used since it last came by.
+
+    One oracle is shared by the CBS searches and the workers of ParallelSearch. A hit is a read of an
+    atomic array plus a flag write that may race without harm. Misses search outside of the lock, so two
+    threads may search for the same row at once, and only the bookkeeping of the cache is synchronized.
+*/
+public class DistanceOracle
+        extends DistanceTable
+{
+    private static long budget = Runtime.getRuntime().maxMemory() / 16;
+
+    private final int[] neighbours;
+    private final AtomicReferenceArray<short[]> rows;
+    // Whether the row of an id was used since the clock hand last passed it.
+    private final byte[] referenced;
+    // Ids that have a row, capacity at most, and the clock hand over them.
+    private final int[] resident;
+    private int numResident = 0;
+    private int hand = 0;
+
+    // Bytes the rows of the distance oracles may take, and above which DistanceTable.forLevel uses an oracle.
+    public static long budget()
+    {
+        return budget;
+    }
+
+    public static void setBudget(long bytes)
+    {
+        if (bytes <= 0)
+        {
+            throw new IllegalArgumentException("The budget must be positive.");
+        }
+        budget = bytes;
+    }
+
+    public DistanceOracle(boolean[][] walls)
+    {
+        this(walls, budget());
+    }
+
+    public DistanceOracle(boolean[][] walls, long budget)
+    {
+        this(walls, ids(walls), budget);
+    }
+
+    private DistanceOracle(boolean[][] walls, int[] ids, long budget)
+    {
+        super(walls[0].length, ids, numFree(ids));
+        this.neighbours = neighbours(walls, ids, this.numFree);
+        this.rows = new AtomicReferenceArray<>(this.numFree);
+        this.referenced = new byte[this.numFree];
+        long capacity = budget / Math.max(1, (long) this.numFree * Short.BYTES);
+        this.resident = new int[(int) Math.max(1, Math.min(this.numFree, capacity))];
+    }
+
+    @Override
+    int entry(int a, int b)
+    {
+        short[] row = this.rows.get(b);
+        if (row == null)
+        {
+            row = this.load(b);
+        }
+        else
+        {
+            this.referenced[b] = 1;
+        }
+        int distance = row[a] & 0xFFFF;
+        return distance == ShortDistanceTable.NONE ? UNREACHABLE : distance;
+    }
+
+    // The walks around a box on every cell take time that grows with the square of the free cells, too much here.
+    @Override
+    public BoxDistanceTable boxDistances(int goalCell)
+    {
+        return null;
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return (long) this.numResident * this.numFree * Short.BYTES;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("distances between %,d free cells on demand, up to %,d rows of %,d bytes",
+                             this.numFree, this.resident.length, this.numFree * Short.BYTES);
+    }
+
+    private short[] load(int target)
+    {
+        short[] row = new short[this.numFree];
+        breadthFirst(target, this.numFree, this.neighbours, row, 0);
+        synchronized (this)
+        {
+            short[] other = this.rows.get(target);
+            if (other != null)
+            {
+                // Another thread was first, its row is the same.
+                return other;
+            }
+            if (this.numResident < this.resident.length)
+            {
+                this.resident[this.numResident++] = target;
+            }
+            else
+            {
+                while (this.referenced[this.resident[this.hand]] != 0)
+                {
+                    this.referenced[this.resident[this.hand]] = 0;
+                    this.hand = (this.hand + 1) % this.resident.length;
+                }
+                this.rows.set(this.resident[this.hand], null);
+                this.resident[this.hand] = target;
+                this.hand = (this.hand + 1) % this.resident.length;
+            }
+            this.referenced[target] = 1;
+            this.rows.set(target, row);
+        }
+        return row;
+    }
+}
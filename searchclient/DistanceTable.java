@@ -0,0 +1,225 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/*
+    Distances between all pairs of cells walking around the walls (the real distances of the heuristics and
+    of the sub goal assignment of GraphSearch): 0 from a cell to itself and UNREACHABLE where there is no
+    walk, which is also the case from or to a wall.
+
+    Only the free cells have a row. They are numbered densely in row-major order (ids), and the distance from
+    id a to id b is entry a * numFree + b of one flat array, instead of a 4-dimensional array over every cell
+    of the level with its walls. Entries are a byte when the longest distance is below 255 and a short
+    otherwise, with the highest value as the sentinel for no walk. A level has at most 65536 cells (the
+    packed keys of State use 16 bits per cell), so a distance always fits in a short.
+
+    It is computed with one breadth-first search per free cell, in parallel on the common ForkJoin pool,
+    each of them writing only its own row. On a level too large for that, forLevel gives a DistanceOracle,
+    which only searches from the cells that are asked for.
+*/
+public abstract class DistanceTable
+{
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    final int numCols;
+    // Dense id of every cell, -1 for walls.
+    final int[] ids;
+    final int numFree;
+    // Box distances of the goal cells asked for so far, and the moves of the level they are built from.
+    private final ConcurrentHashMap<Integer, BoxDistanceTable> boxDistances = new ConcurrentHashMap<>();
+    private BoxMoves boxMoves;
+
+    DistanceTable(int numCols, int[] ids, int numFree)
+    {
+        this.numCols = numCols;
+        this.ids = ids;
+        this.numFree = numFree;
+    }
+
+    /*
+        The full table when it fits in the budget of DistanceOracle, which also makes it the faster choice,
+        and a DistanceOracle otherwise. A full table is taken from DistanceCache if a run before stored it.
+    */
+    public static DistanceTable forLevel(boolean[][] walls)
+    {
+        int[] ids = ids(walls);
+        long numFree = numFree(ids);
+        if (numFree * numFree * Short.BYTES <= DistanceOracle.budget())
+        {
+            DistanceTable table = DistanceCache.load(walls);
+            if (table == null)
+            {
+                table = compute(walls);
+                DistanceCache.store(walls, table);
+            }
+            return table;
+        }
+        return new DistanceOracle(walls);
+    }
+
+    public static DistanceTable compute(boolean[][] walls)
+    {
+        int numCols = walls[0].length;
+        int[] ids = ids(walls);
+        int numFree = numFree(ids);
+        int[] neighbours = neighbours(walls, ids, numFree);
+        if ((long) numFree * numFree > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("Too many free cells for a distance table: " + numFree + ".");
+        }
+
+        short[] distances = new short[numFree * numFree];
+        int longest = IntStream.range(0, numFree).parallel()
+                               .map(source -> breadthFirst(source, numFree, neighbours, distances, source * numFree))
+                               .max().orElse(0);
+        if (longest < ByteDistanceTable.NONE)
+        {
+            byte[] bytes = new byte[distances.length];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = (byte) distances[i];
+            }
+            return new ByteDistanceTable(numCols, ids, numFree, bytes);
+        }
+        return new ShortDistanceTable(numCols, ids, numFree, distances);
+    }
+
+    // Dense ids of the cells of the level in row-major order, -1 for walls.
+    static int[] ids(boolean[][] walls)
+    {
+        int numRows = walls.length;
+        int numCols = walls[0].length;
+        int[] ids = new int[numRows * numCols];
+        int numFree = 0;
+        for (int row = 0; row < numRows; row++)
+        {
+            for (int col = 0; col < numCols; col++)
+            {
+                ids[row * numCols + col] = walls[row][col] ? -1 : numFree++;
+            }
+        }
+        return ids;
+    }
+
+    static int numFree(int[] ids)
+    {
+        int numFree = 0;
+        for (int id : ids)
+        {
+            numFree = Math.max(numFree, id + 1);
+        }
+        return numFree;
+    }
+
+    // Free neighbours of every free cell by id, 4 per cell (north, south, west, east), -1 where there is none.
+    static int[] neighbours(boolean[][] walls, int[] ids, int numFree)
+    {
+        return neighbours(ids, walls[0].length, numFree);
+    }
+
+    static int[] neighbours(int[] ids, int numCols, int numFree)
+    {
+        int numRows = ids.length / numCols;
+        int[] neighbours = new int[numFree * 4];
+        int[] rowDelta = {-1, 1, 0, 0};
+        int[] colDelta = {0, 0, -1, 1};
+        for (int row = 0; row < numRows; row++)
+        {
+            for (int col = 0; col < numCols; col++)
+            {
+                int id = ids[row * numCols + col];
+                for (int d = 0; id >= 0 && d < 4; d++)
+                {
+                    int r = row + rowDelta[d];
+                    int c = col + colDelta[d];
+                    boolean inside = r >= 0 && r < numRows && c >= 0 && c < numCols;
+                    neighbours[id * 4 + d] = inside ? ids[r * numCols + c] : -1;
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /*
+        Writes the distances from source to every free cell to distances, starting at offset, with
+        ShortDistanceTable.NONE where there is no walk. Returns the longest distance.
+    */
+    static int breadthFirst(int source, int numFree, int[] neighbours, short[] distances, int offset)
+    {
+        Arrays.fill(distances, offset, offset + numFree, (short) ShortDistanceTable.NONE);
+        int[] queue = new int[numFree];
+        int head = 0;
+        int tail = 0;
+        distances[offset + source] = 0;
+        queue[tail++] = source;
+        int distance = 0;
+        while (head < tail)
+        {
+            int id = queue[head++];
+            distance = distances[offset + id] & 0xFFFF;
+            for (int d = 0; d < 4; d++)
+            {
+                int next = neighbours[id * 4 + d];
+                if (next >= 0 && (distances[offset + next] & 0xFFFF) == ShortDistanceTable.NONE)
+                {
+                    distances[offset + next] = (short) (distance + 1);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return distance;
+    }
+
+    // Distance between two cells given as row * numCols + col.
+    public int dist(int cellA, int cellB)
+    {
+        int a = this.ids[cellA];
+        int b = this.ids[cellB];
+        if (a < 0 || b < 0)
+        {
+            return cellA == cellB ? 0 : UNREACHABLE;
+        }
+        return this.entry(a, b);
+    }
+
+    public int dist(int rowA, int colA, int rowB, int colB)
+    {
+        return this.dist(rowA * this.numCols + colA, rowB * this.numCols + colB);
+    }
+
+    /*
+        Actions an agent needs to bring a box to goalCell by pushing and pulling it (BoxDistanceTable), built
+        the first time the cell is asked for and shared from then on. Null for a wall.
+    */
+    public BoxDistanceTable boxDistances(int goalCell)
+    {
+        if (this.ids[goalCell] < 0)
+        {
+            return null;
+        }
+        return this.boxDistances.computeIfAbsent(goalCell, cell -> new BoxDistanceTable(this, this.boxMoves(), cell));
+    }
+
+    private synchronized BoxMoves boxMoves()
+    {
+        if (this.boxMoves == null)
+        {
+            this.boxMoves = new BoxMoves(this.ids, this.numCols, this.numFree);
+        }
+        return this.boxMoves;
+    }
+
+    // Bytes of the distances, for logging.
+    public abstract long size();
+
+    // Distance between two free cells by id, UNREACHABLE where there is no walk.
+    abstract int entry(int a, int b);
+
+    @Override
+    public String toString()
+    {
+        return String.format("distances between %,d free cells in %,d bytes", this.numFree, this.size());
+    }
+}
@@ -10,6 +10,7 @@ public interface Frontier
     void add(State state);
     State pop();
     boolean isEmpty();
+    // Whether the state is on the frontier, that is added and not popped yet.
     boolean contains(State state);
     String getName();
 }
@@ -47,7 +48,7 @@ class FrontierBFS
     @Override
     public boolean contains(State state)
     {
-        return !this.set.contains(state);
+        return this.set.contains(state);
     }
 
     @Override
@@ -89,7 +90,7 @@ class FrontierDFS
     @Override
     public boolean contains(State state)
     {
-        return !this.set.contains(state);
+        return this.set.contains(state);
     }
 
     @Override
@@ -99,54 +100,6 @@ class FrontierDFS
     }
 }
 
-class FrontierBestFirst
-        implements Frontier
-{
-    private final Heuristic heuristic;
-    private final PriorityQueue<State> pqueue;
-    private final HashSet<State> set = new HashSet<>(65536);
-
-    public FrontierBestFirst(Heuristic h)
-    {
-        this.heuristic = h;
-        pqueue = new PriorityQueue<>(65536, this.heuristic);
-    }
-
-    @Override
-    public void add(State state)
-    {
-        this.pqueue.add(state);
-        this.set.add(state);
-    }
-
-    @Override
-    public State pop()
-    {
-        State state = this.pqueue.poll();
-        this.set.remove(state);
-        return state;
-    }
-
-    @Override
-    public boolean isEmpty()
-    {
-        return this.pqueue.isEmpty();
-    }
-
-
-    @Override
-    public boolean contains(State state)
-    {
-        return !this.set.contains(state);
-    }
-
-    @Override
-    public String getName()
-    {
-        return String.format("best-first search using %s", this.heuristic.toString());
-    }
-}
-
 class FrontierSubGoal
 {
     private final HeuristicSubGoal heuristic;
@@ -215,4 +168,3 @@ class FrontierCBS
 
 
 }
-
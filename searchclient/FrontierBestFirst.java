@@ -0,0 +1,217 @@
+package searchclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/*
+    Best-first frontier as a bucket queue. The evaluation f of a state is computed once, when it is added,
+    and the state goes to the bucket of that f. Among states with the same f the deepest one is popped first,
+    which is the one with the lowest h, and states with the same g first in first out (last in first out made
+    the CBS runs on SALTY and Flower several times slower). So a bucket is a list of first in first out
+    layers by g. f never decreases much during a search and g within a bucket only increases as states are
+    added, so finding the next state from the last one popped is constant time amortized.
+
+    Unlike the other frontiers it does not keep a set of its states: the searches that use it keep every
+    node, open or closed, in SearchNodes, which also tells which popped states are stale. contains asks the
+    node map of the search (open), a state is on the frontier while its node is open with the g it has.
+
+    The f values of the heuristics in this client are small, but an unreachable cell in the distance grid
+    (Integer.MAX_VALUE) can overflow them. States with an f outside of the bucket range are kept in a sorted
+    map instead, and compete with the buckets on f like any other state.
+*/
+class FrontierBestFirst
+        implements Frontier
+{
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final Heuristic heuristic;
+    private final Predicate<State> open;
+    private final ArrayList<Bucket> buckets = new ArrayList<>();
+    private final TreeMap<Integer, Bucket> outOfRange = new TreeMap<>();
+    // No bucket below lowest or above highest holds a state.
+    private int lowest = 0;
+    private int highest = -1;
+    private int size = 0;
+
+    public FrontierBestFirst(Heuristic h, Predicate<State> open)
+    {
+        this.heuristic = h;
+        this.open = open;
+    }
+
+    @Override
+    public void add(State state)
+    {
+        this.add(state, this.heuristic.f(state));
+    }
+
+    // Adds a state whose f is known already.
+    void add(State state, int f)
+    {
+        if (inRange(f))
+        {
+            while (this.buckets.size() <= f)
+            {
+                this.buckets.add(new Bucket());
+            }
+            this.buckets.get(f).add(state);
+            this.lowest = Math.min(this.lowest, f);
+            this.highest = Math.max(this.highest, f);
+        }
+        else
+        {
+            this.outOfRange.computeIfAbsent(f, k -> new Bucket()).add(state);
+        }
+        this.size++;
+    }
+
+    @Override
+    public State pop()
+    {
+        if (this.size == 0)
+        {
+            return null;
+        }
+        int f = this.lowestF();
+        Bucket bucket = inRange(f) ? this.buckets.get(f) : this.outOfRange.get(f);
+        State state = bucket.poll();
+        if (bucket.isEmpty() && !inRange(f))
+        {
+            this.outOfRange.remove(f);
+        }
+        this.size--;
+        return state;
+    }
+
+    // f of the next state to pop, the frontier must not be empty.
+    int lowestF()
+    {
+        while (this.lowest < this.buckets.size() && this.buckets.get(this.lowest).isEmpty())
+        {
+            this.lowest++;
+        }
+        Map.Entry<Integer, Bucket> first = this.outOfRange.firstEntry();
+        if (first != null && (this.lowest == this.buckets.size() || first.getKey() < this.lowest))
+        {
+            return first.getKey();
+        }
+        return this.lowest;
+    }
+
+    // Highest f of a state on the frontier, which must not be empty.
+    int highestF()
+    {
+        while (this.highest >= 0 && this.buckets.get(this.highest).isEmpty())
+        {
+            this.highest--;
+        }
+        Map.Entry<Integer, Bucket> last = this.outOfRange.lastEntry();
+        if (last != null && (this.highest < 0 || last.getKey() > this.highest))
+        {
+            return last.getKey();
+        }
+        return this.highest;
+    }
+
+    // Takes out every state with this f at once (see FrontierExternal).
+    ArrayList<State> pollLayer(int f)
+    {
+        Bucket bucket;
+        if (inRange(f))
+        {
+            bucket = this.buckets.get(f);
+            this.buckets.set(f, new Bucket());
+        }
+        else
+        {
+            bucket = this.outOfRange.remove(f);
+        }
+        this.size -= bucket.size;
+        return bucket.states();
+    }
+
+    int size()
+    {
+        return this.size;
+    }
+
+    private static boolean inRange(int f)
+    {
+        return f >= 0 && f < MAX_BUCKETS;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    @Override
+    public boolean contains(State state)
+    {
+        return this.open.test(state);
+    }
+
+    @Override
+    public String getName()
+    {
+        return String.format("best-first search using %s", this.heuristic.toString());
+    }
+
+    // The states of one f, in a first in first out layer per g, made when a state with that g comes.
+    private static final class Bucket
+    {
+        private final ArrayList<ArrayDeque<State>> layers = new ArrayList<>();
+        // No layer above this one holds a state.
+        private int deepest = -1;
+        private int size = 0;
+
+        void add(State state)
+        {
+            int g = state.g;
+            while (this.layers.size() <= g)
+            {
+                this.layers.add(null);
+            }
+            if (this.layers.get(g) == null)
+            {
+                this.layers.set(g, new ArrayDeque<>());
+            }
+            this.layers.get(g).addLast(state);
+            this.deepest = Math.max(this.deepest, g);
+            this.size++;
+        }
+
+        // The bucket must not be empty.
+        State poll()
+        {
+            while (this.layers.get(this.deepest) == null || this.layers.get(this.deepest).isEmpty())
+            {
+                this.deepest--;
+            }
+            this.size--;
+            return this.layers.get(this.deepest).pollFirst();
+        }
+
+        boolean isEmpty()
+        {
+            return this.size == 0;
+        }
+
+        ArrayList<State> states()
+        {
+            ArrayList<State> states = new ArrayList<>(this.size);
+            for (ArrayDeque<State> layer : this.layers)
+            {
+                if (layer != null)
+                {
+                    states.addAll(layer);
+                }
+            }
+            return states;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package searchclient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+    Best-first frontier that moves the layers with the highest f to disk when it holds too many states.
+
+    The States in memory are in a FrontierBestFirst, the bucket queue with one first in first out layer per
+    f. Above budget states in memory the layer with the highest f is written out, and so are new states of a
+    layer above the one being popped. A state on disk is just its entry in the node map of the search
+    (NodeMap) and its g (8 bytes), the packed key is in the entry already, so the heap only holds the States
+    of the hot layers.
+
+    A layer on disk is read back through a memory-mapped file once it has the lowest f. Duplicate detection
+    is delayed until then: the records are sorted by entry, repeats are dropped and so is every record that
+    the node map no longer has as open at that g, because the node was closed or reached on a cheaper path
+    while the record was on disk. The rest are rebuilt into States (NodeMap.state) as they are popped.
+
+    Only states attached to the node map given to the constructor can be written out. It does not keep a
+    set of its states, contains asks the node map whether the node of the state is open at its g, as
+    FrontierBestFirst does. A layer read back can turn out to hold only stale records, so isEmpty reads the
+    next ones until there is a state to pop or none is left.
+*/
+class FrontierExternal
+        implements Frontier
+{
+    // Rough heap size of a State of the frontier, with its arrays.
+    private static final int STATE_BYTES = 256;
+    private static final int RECORD_BYTES = 2 * Integer.BYTES;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final Heuristic heuristic;
+    private final NodeMap nodes;
+    private final int budget;
+
+    private final FrontierBestFirst memory;
+    private final TreeMap<Integer, Layer> disk = new TreeMap<>();
+    private Path directory;
+    private long size = 0;
+
+    // Records of the layer read back from disk that have not been popped yet, entry << 32 | g, sorted.
+    private long[] loaded = new long[0];
+    private int loadedPosition = 0;
+    private int loadedF = Integer.MIN_VALUE;
+    // f of the last state popped, no layer at or below it is written out.
+    private int hot = Integer.MIN_VALUE;
+
+    public FrontierExternal(Heuristic h, NodeMap nodes, int budget)
+    {
+        this.heuristic = h;
+        this.nodes = nodes;
+        this.budget = budget;
+        this.memory = new FrontierBestFirst(h, nodes::isOpen);
+    }
+
+    // States that fit in a quarter of the max heap.
+    public static int defaultBudget()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, (long) (Memory.max() * 1024 * 1024) / 4 / STATE_BYTES);
+    }
+
+    @Override
+    public void add(State state)
+    {
+        int f = this.heuristic.f(state);
+        this.size++;
+        if (this.memory.size() >= this.budget && f > Math.max(this.hot, this.loadedF) && this.spillable(state))
+        {
+            this.layer(f).write(state.nodeIndex, state.g);
+            return;
+        }
+        this.memory.add(state, f);
+        while (this.memory.size() > this.budget && this.spillHighest())
+        {
+        }
+    }
+
+    // null only when the frontier is empty.
+    @Override
+    public State pop()
+    {
+        if (this.isEmpty())
+        {
+            return null;
+        }
+        while (true)
+        {
+            boolean warm = !this.memory.isEmpty();
+            int warmF = warm ? this.memory.lowestF() : Integer.MAX_VALUE;
+            if (this.loadedPosition < this.loaded.length && this.loadedF <= warmF)
+            {
+                long record = this.loaded[this.loadedPosition++];
+                this.hot = this.loadedF;
+                if (this.loadedPosition == this.loaded.length)
+                {
+                    this.loadedF = Integer.MIN_VALUE;
+                }
+                this.size--;
+                return this.nodes.state((int) (record >>> 32), (int) record);
+            }
+
+            Map.Entry<Integer, Layer> cold = this.disk.firstEntry();
+            if (cold != null && (!warm || cold.getKey() <= warmF))
+            {
+                this.disk.remove(cold.getKey());
+                this.load(cold.getKey(), cold.getValue());
+                continue;
+            }
+
+            // No loaded record or layer on disk comes first, and isEmpty made sure memory is not empty then.
+            this.hot = warmF;
+            this.size--;
+            return this.memory.pop();
+        }
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        while (this.memory.isEmpty() && this.loadedPosition == this.loaded.length && !this.disk.isEmpty())
+        {
+            Map.Entry<Integer, Layer> cold = this.disk.pollFirstEntry();
+            this.load(cold.getKey(), cold.getValue());
+        }
+        return this.size == 0;
+    }
+
+    @Override
+    public boolean contains(State state)
+    {
+        return this.nodes.isOpen(state);
+    }
+
+    @Override
+    public String getName()
+    {
+        return String.format("external best-first search using %s", this.heuristic.toString());
+    }
+
+    // Deletes what is on disk, for when the search is over. The frontier is empty afterwards.
+    public void discard()
+    {
+        for (Layer layer : this.disk.values())
+        {
+            layer.delete();
+        }
+        this.disk.clear();
+        while (!this.memory.isEmpty())
+        {
+            this.memory.pollLayer(this.memory.highestF());
+        }
+        this.loaded = new long[0];
+        this.loadedPosition = 0;
+        this.size = 0;
+        if (this.directory != null)
+        {
+            try
+            {
+                Files.deleteIfExists(this.directory);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not delete " + this.directory + ": " + e.getMessage());
+            }
+            this.directory = null;
+        }
+    }
+
+    private boolean spillable(State state)
+    {
+        return this.nodes.owns(state);
+    }
+
+    // Writes out the in-memory layer with the highest f above the hot one. Returns false if there is none.
+    private boolean spillHighest()
+    {
+        if (this.memory.isEmpty() || this.memory.highestF() <= Math.max(this.hot, this.loadedF))
+        {
+            return false;
+        }
+        int f = this.memory.highestF();
+        boolean spilled = true;
+        Layer layer = this.layer(f);
+        for (State state : this.memory.pollLayer(f))
+        {
+            if (this.spillable(state))
+            {
+                layer.write(state.nodeIndex, state.g);
+            }
+            else
+            {
+                // These can not go to disk, they stay in memory.
+                this.memory.add(state, f);
+                spilled = false;
+            }
+        }
+        return spilled;
+    }
+
+    private Layer layer(int f)
+    {
+        try
+        {
+            if (this.directory == null)
+            {
+                this.directory = Files.createTempDirectory("searchclient-frontier");
+                this.directory.toFile().deleteOnExit();
+                System.err.println("Frontier is spilling to " + this.directory + ": " + Memory.stringRep());
+            }
+            Layer layer = this.disk.get(f);
+            if (layer == null)
+            {
+                layer = new Layer(this.directory.resolve("layer-" + f + ".bin"));
+                this.disk.put(f, layer);
+            }
+            return layer;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Could not write the frontier to disk.", e);
+        }
+    }
+
+    // Reads a layer back and does its duplicate detection, the layer file is deleted.
+    private void load(int f, Layer layer)
+    {
+        long[] records = layer.read();
+        Arrays.sort(records);
+        int kept = 0;
+        for (int i = 0; i < records.length; i++)
+        {
+            long record = records[i];
+            if (i > 0 && record == records[i - 1])
+            {
+                continue;
+            }
+            if (this.nodes.isOpen((int) (record >>> 32), (int) record))
+            {
+                records[kept++] = record;
+            }
+        }
+        this.size -= records.length - kept;
+        this.loaded = Arrays.copyOf(records, kept);
+        this.loadedPosition = 0;
+        this.loadedF = f;
+    }
+
+    // One f-layer on disk: records of an int entry and an int g, appended through a small buffer.
+    private static class Layer
+    {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+
+        Layer(Path path)
+        throws IOException
+        {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+            path.toFile().deleteOnExit();
+        }
+
+        void write(int entry, int g)
+        {
+            if (this.buffer.remaining() < RECORD_BYTES)
+            {
+                this.flush();
+            }
+            this.buffer.putInt(entry).putInt(g);
+        }
+
+        long[] read()
+        {
+            this.flush();
+            try
+            {
+                long bytes = this.channel.size();
+                long[] records = new long[(int) (bytes / RECORD_BYTES)];
+                MappedByteBuffer map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+                map.order(ByteOrder.nativeOrder());
+                for (int i = 0; i < records.length; i++)
+                {
+                    records[i] = (long) map.getInt() << 32 | (map.getInt() & 0xFFFFFFFFL);
+                }
+                this.channel.close();
+                Files.deleteIfExists(this.path);
+                return records;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Could not read the frontier back from disk.", e);
+            }
+        }
+
+        void delete()
+        {
+            try
+            {
+                this.channel.close();
+                Files.deleteIfExists(this.path);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Could not delete " + this.path + ": " + e.getMessage());
+            }
+        }
+
+        private void flush()
+        {
+            this.buffer.flip();
+            try
+            {
+                while (this.buffer.hasRemaining())
+                {
+                    this.channel.write(this.buffer);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException("Could not write the frontier to disk.", e);
+            }
+            this.buffer.clear();
+        }
+    }
+}
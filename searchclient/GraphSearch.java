@@ -7,22 +7,110 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.*;
 import java.util.Objects;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.PriorityQueue;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class GraphSearch {
 
+    // Expansions after which a single best-first search is handed to ParallelSearch, see bestFirst.
+    private static final int PARALLEL_AFTER = 50_000;
+    // The heap is checked every this many expansions (minus one), see bestFirst.
+    static final int MEMORY_CHECK_MASK = (1 << 14) - 1;
+    // The deadline is checked every this many expansions (minus one), see bestFirst.
+    static final int DEADLINE_CHECK_MASK = (1 << 10) - 1;
+    // Weights of h of the runs of anytimeSearch, the last one is plain A*.
+    private static final double[] ANYTIME_WEIGHTS = {1.5, 1.2, 1};
+
     public static Action[][] advancedSearch(State initialState) {
-        int[][][][] realDistanceGrid = logElapsedTime("Compute with Floyd-Warshall.....", () -> preComputeRealDistance(initialState));
+        DistanceTable distances = logElapsedTime("Compute real distances with BFS.....", () -> preComputeRealDistance(initialState));
+        return solve(initialState, distances, Run.PLAIN);
+    }
+
+    /*
+        Solves the whole level as one search over the joint states of all agents, instead of CBS over single
+        agent searches (Salty -joint). Joint states have too many children to push them all, so the search is
+        PartialExpansion. Its heuristic only counts the agents' own goals, boxes are left to the search.
+    */
+    public static Action[][] jointSearch(State initialState) {
+        DistanceTable distances = logElapsedTime("Compute real distances with BFS.....", () -> preComputeRealDistance(initialState));
+        HeuristicJoint heuristic = new HeuristicJoint(initialState, distances);
+        System.err.format("Starting joint search of %d agents using %s.\n", initialState.agentRows.length, heuristic);
+        State goal = PartialExpansion.search(initialState, heuristic, State::isGoalStateLastSubGoal);
+        return goal == null ? null : goal.extractPlan();
+    }
+
+    /*
+        Anytime search: solves the level with weighted A* in the low-level searches, then again with lower and
+        lower weights down to plain A* while there is time left before the deadline, and returns the shortest
+        plan found. The first run is never stopped, so there always is a plan, even if it is late. A later run
+        still going at the deadline is dropped.
+    */
+    public static Action[][] anytimeSearch(State initialState, long deadline) {
+        DistanceTable distances = logElapsedTime("Compute real distances with BFS.....", () -> preComputeRealDistance(initialState));
+        Action[][] best = null;
+        for (double w : ANYTIME_WEIGHTS) {
+            Action[][] plan;
+            try {
+                // Once there is a plan, a run that can no longer finish in time is stopped.
+                plan = solve(initialState, distances, new Run(w, deadline, best != null));
+            } catch (DeadlineExceeded e) {
+                System.err.format("Out of time with weight %.1f.\n", w);
+                break;
+            }
+            if (plan != null && (best == null || plan.length < best.length)) {
+                best = plan;
+            }
+            System.err.format("Weight %.1f: plan of length %s, %.1f s left.\n", w,
+                              plan == null ? "-" : Integer.toString(plan.length), (deadline - System.nanoTime()) / 1e9);
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /*
+        How one run of solve searches: the weight of h in the searches of SerializedAstar, and the deadline
+        (System.nanoTime()) after which the run is stopped with DeadlineExceeded, if it is stoppable. The
+        searches a search hands over to (ParallelSearch, IDAstar) check it too.
+    */
+    static final class Run {
+        static final Run PLAIN = new Run(1, 0, false);
+
+        final double weight;
+        final long deadline;
+        final boolean stoppable;
+
+        Run(double weight, long deadline, boolean stoppable) {
+            this.weight = weight;
+            this.deadline = deadline;
+            this.stoppable = stoppable;
+        }
 
+        void checkDeadline() {
+            if (this.stoppable && System.nanoTime() - this.deadline >= 0) {
+                throw new DeadlineExceeded();
+            }
+        }
+    }
 
+    // Stops a run of anytimeSearch that can no longer finish in time.
+    static class DeadlineExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineExceeded() {
+            super("The deadline has passed.", null, false, false);
+        }
+    }
+
+    private static Action[][] solve(State initialState, DistanceTable distances, Run run) {
         Path path = new Path();
 
-        HashMap<Character,List<SubGoal>> subGoals = path.path(initialState,realDistanceGrid);
+        HashMap<Character,List<SubGoal>> subGoals = path.path(initialState,distances);
         path.removeAndGetUnassigned(subGoals);
 
         // Split maps for the single agent problem based on the subGoals found
@@ -33,37 +121,38 @@ public class GraphSearch {
 
         // Evaluate subGoals greedily. Closest first!
         // TODO: Scheduler needs to be improved.
-        evaluateCostOfSubGoals(subGoals, initialState, realDistanceGrid);
+        evaluateCostOfSubGoals(subGoals, initialState, distances);
 
         // Start CBS ROUTINE
-        return initializeAndRunCBS(initialState, states, subGoals, realDistanceGrid);
+        return initializeAndRunCBS(initialState, states, subGoals, distances, run);
     }
 
-    private static int[][][][] logElapsedTime(String message, Supplier<int[][][][]> task) {
+    private static <T> T logElapsedTime(String message, Supplier<T> task) {
         System.err.println(message);
         long startT = System.nanoTime();
-        int[][][][] result = task.get();
+        T result = task.get();
         double elapsedTime = (System.nanoTime() - startT) / 1_000_000_000d;
         System.err.println("The magic " + elapsedTime + "s");
         return result;  // Return the computed distance grid
     }
 
-    private static Action[][] initializeAndRunCBS(State initialState, State[] states, HashMap<Character, List<SubGoal>> subGoals, int[][][][] realDistanceGrid) {
+    private static Action[][] initializeAndRunCBS(State initialState, State[] states, HashMap<Character, List<SubGoal>> subGoals, DistanceTable distances, Run run) {
         Node root = new Node();
         FrontierCBS frontierCBS = new FrontierCBS(new HeuristicCBS(root));
 
         for (int agent = 0; agent < initialState.agentRows.length; agent++) {
-            Action[][] solution = SerializedAstar(states[agent], subGoals.get((char) (agent + '0')), realDistanceGrid);
+            Action[][] solution = SerializedAstar(states[agent], subGoals.get((char) (agent + '0')), distances, run);
             assert solution != null;
             root.setAgentSolution((char) (agent + '0'), getAgentPlan(solution));
         }
 
         frontierCBS.add(root);
-        return cbs(initialState, states, subGoals, frontierCBS, realDistanceGrid);
+        return cbs(initialState, states, subGoals, frontierCBS, distances, run);
     }
-    public static Action[][] cbs(State initialState, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, FrontierCBS frontier, int[][][][] realDistanceGrid){
+    private static Action[][] cbs(State initialState, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, FrontierCBS frontier, DistanceTable distances, Run run){
         HashSet<Node> expanded = new HashSet<>();
         while (!frontier.isEmpty()) {
+            run.checkDeadline();
             Node currentNode = frontier.pop();
             expanded.add(currentNode);
             ExecutionInfo<Integer,Conflict,State> executionInfo = executeSolution(initialState, currentNode);
@@ -72,26 +161,26 @@ public class GraphSearch {
                 return currentNode.mergePlans();
             }
 
-            handleConflicts(currentNode, executionInfo, frontier, expanded, singleAgentStates, subGoals, realDistanceGrid);
+            handleConflicts(currentNode, executionInfo, frontier, expanded, singleAgentStates, subGoals, distances, run);
         }
         return null; // If the frontier is empty and no solution was found
     }
 
-    private static void handleConflicts(Node currentNode, ExecutionInfo<Integer,Conflict,State> executionInfo, FrontierCBS frontier, Set<Node> expanded, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, int[][][][] realDistanceGrid) {
+    private static void handleConflicts(Node currentNode, ExecutionInfo<Integer,Conflict,State> executionInfo, FrontierCBS frontier, Set<Node> expanded, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, DistanceTable distances, Run run) {
         for (Character agent : executionInfo.firstConf.getAgents()) {
-            Node newNode = resolveAgentConflict(agent, currentNode, executionInfo, singleAgentStates, subGoals, realDistanceGrid);
+            Node newNode = resolveAgentConflict(agent, currentNode, executionInfo, singleAgentStates, subGoals, distances, run);
             if (newNode != null && !frontier.contains(newNode) && !expanded.contains(newNode)) {
                 frontier.add(newNode);
             }
         }
     }
 
-    private static Node resolveAgentConflict(Character agent, Node currentNode, ExecutionInfo<Integer,Conflict,State> executionInfo, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, int[][][][] realDistanceGrid) {
+    private static Node resolveAgentConflict(Character agent, Node currentNode, ExecutionInfo<Integer,Conflict,State> executionInfo, State[] singleAgentStates, HashMap<Character,List<SubGoal>> subGoals, DistanceTable distances, Run run) {
         Node newNode = new Node(currentNode);
         newNode.addConstrain(agent, executionInfo.firstConf.getConflictTimeframe(agent), executionInfo.firstConf.getConflictPosition(agent), "agent");
         singleAgentStates[agent - '0'].copyConstrains(newNode.manage, agent);
 
-        Action[][] solution = SerializedAstar(singleAgentStates[agent - '0'], subGoals.get(agent), realDistanceGrid);
+        Action[][] solution = SerializedAstar(singleAgentStates[agent - '0'], subGoals.get(agent), distances, run);
         if (solution == null) {
             return null;
         }
@@ -100,72 +189,32 @@ public class GraphSearch {
         newNode.updateCost(executionInfo.nConf);
         return newNode;
     }
-    public static Action[][] MBAstar(State initialState, List<SubGoal> subGoals, int[][][][] realDistanceGrid)
+    public static Action[][] MBAstar(State initialState, List<SubGoal> subGoals, DistanceTable distances)
     {
-        Action[][] tmpPlan = null;
-
-        PriorityQueue<State> frontier = new PriorityQueue<>(new HeuristicMBA(initialState, realDistanceGrid, null));
-        HashSet<State> expanded = new HashSet<>();
-
+        HeuristicJoint heuristic = new HeuristicJoint(initialState, distances);
         for (SubGoal subGoal : subGoals) {
             initialState.setWall(subGoal);
-            frontier.add(initialState);
-
-            while (!frontier.isEmpty()) {
-                State currentState = frontier.poll();
-                expanded.add(currentState);
-
-                if (currentState.isGoalStateLastSubGoal()) {
-                    tmpPlan = currentState.extractPlan();
-                    break;
-                }
-
-                for (State state : currentState.getExpandedStates()) {
-                    if (!expanded.contains(state)) {
-                        frontier.add(state);
-                    }
-                }
-            }
-
-            if (tmpPlan != null) {
-                break;
+            // Joint states have too many children to push them all, see PartialExpansion.
+            State goal = PartialExpansion.search(initialState, heuristic, State::isGoalStateLastSubGoal);
+            if (goal != null) {
+                return goal.extractPlan();
             }
         }
 
-        return tmpPlan;
+        return null;
     }
-    public static Action[][] SerializedAstar(State initialState, List<SubGoal> subGoals, int[][][][] realDistanceGrid)
+    private static Action[][] SerializedAstar(State initialState, List<SubGoal> subGoals, DistanceTable distances, Run run)
     {
         Action[][] tmpPlan = null;
         State currState = initialState;
 
         if(subGoals == null || subGoals.isEmpty()){
-            Frontier frontier = new FrontierBestFirst(new HeuristicMBA(currState, realDistanceGrid, null));
-            int iterations = 0;
-            frontier.add(currState);
-            HashSet<State> expanded = new HashSet<>();
-            while (true) {
-                if (++iterations % 200000 == 0) {
-                    System.err.println("Searching.....");
-                }
-                if (frontier.isEmpty()) {
-                    //System.err.println("Solution was not found! :'( ");
-                    return null;
-                }
-                State currentState = frontier.pop();
-                expanded.add(currentState);
-                if(currentState.isGoalStateLastSubGoal()){
-                    tmpPlan = currentState.extractPlan();
-                    break;
-                } else {
-                    for(State state: currentState.getExpandedStates()){
-                        if(frontier.contains(state) && !expanded.contains(state)){
-                            frontier.add(state);
-                        }
-                    }
-                }
+            State goal = bestFirst(currState, new HeuristicMBA(currState, distances, null, run.weight), State::isGoalStateLastSubGoal, run);
+            if (goal == null) {
+                //System.err.println("Solution was not found! :'( ");
+                return null;
             }
-            return tmpPlan;
+            return goal.extractPlan();
         }
 
         FrontierSubGoal subGoalFrontier = new FrontierSubGoal(new HeuristicSubGoal());
@@ -177,59 +226,109 @@ public class GraphSearch {
         while(!subGoalFrontier.isEmpty()){
             SubGoal subGoal = subGoalFrontier.pop();
             //System.err.println(subGoal.toString());
-            Frontier frontier = new FrontierBestFirst(new HeuristicMBA(currState, realDistanceGrid, subGoal));
-            int iterations = 0;
-            frontier.add(currState);
-            HashSet<State> expanded = new HashSet<>();
-
-            while (true) {
+            // The last sub goal is only reached when the whole level is solved and the constraints are over.
+            Predicate<State> goal = subGoalFrontier.isEmpty() ? State::isGoalStateLastSubGoal : state -> state.isSubGoalState(subGoal);
+            // Walking to a cell rarely needs the full search: JumpPointSearch when no constraint is left ahead,
+            // BidirectionalSearch otherwise or when a box is in the way.
+            State currentState = null;
+            if (subGoal.box == null) {
+                if (currState.manage.getMaxTimeFrame() <= currState.g) {
+                    currentState = JumpPointSearch.navigate(currState, subGoal, goal);
+                }
+                if (currentState == null) {
+                    currentState = BidirectionalSearch.navigate(currState, subGoal, goal);
+                }
+            }
+            if (currentState == null) {
+                currentState = bestFirst(currState, new HeuristicMBA(currState, distances, subGoal, run.weight), goal, run);
+            }
+            if (currentState == null) {
+                //System.err.println("Solution was not found! :'( ");
+                return null;
+            }
+            //System.err.println("--------- Sub goal completed ---------");
+            tmpPlan = currentState.extractPlan();
+            currState = currentState;
+            currState.setWall(subGoal);
+        }
+        return tmpPlan;
+    }
+    /*
+        Best-first search from root for a state that satisfies goal. Returns that state, its plan is given by
+        extractPlan, or null if there is none.
+
+        Most of the searches of CBS are small and are done here on the calling thread. One that is still going
+        after PARALLEL_AFTER expansions is continued by ParallelSearch on all the workers, if there is more
+        than one, from the nodes it has reached.
+
+        The frontier moves its coldest layers to disk once it holds more States than fit in a quarter of the
+        heap (FrontierExternal).
+
+        When the heap or the visited tables get fuller than Memory.limit() (Memory.overLimit) the search is
+        dropped and started over by IDAstar, which is slower but runs in bounded memory, instead of running
+        into an OutOfMemoryError.
+
+        A search of a stoppable run throws DeadlineExceeded when it goes on past the deadline of the run, and
+        so do ParallelSearch and IDAstar when the search has been handed over to them.
+    */
+    private static State bestFirst(State root, Heuristic heuristic, Predicate<State> goal, Run run) {
+        ArrayList<Action[]> successors = new ArrayList<>(64);
+        int iterations = 0;
+        SearchNodes nodes = new SearchNodes(root);
+        FrontierExternal frontier = new FrontierExternal(heuristic, nodes, FrontierExternal.defaultBudget());
+        frontier.add(root);
+        try {
+            while (!frontier.isEmpty()) {
                 if (++iterations % 200000 == 0) {
                     System.err.println("Searching.....");
                 }
-                if (frontier.isEmpty()) {
-                    //System.err.println("Solution was not found! :'( ");
-                    return null;
+                if (iterations == PARALLEL_AFTER && ParallelSearch.workers() > 1) {
+                    // The workers push the open nodes again, the States on the frontier are not needed.
+                    frontier.discard();
+                    frontier = null;
+                    return ParallelSearch.search(root, heuristic, goal, run);
+                }
+                if ((iterations & DEADLINE_CHECK_MASK) == 0) {
+                    run.checkDeadline();
+                }
+                if ((iterations & MEMORY_CHECK_MASK) == 0 && Memory.overLimit()) {
+                    System.err.println("Memory is running low, continuing with IDA*: " + Memory.stringRep());
+                    // Let the frontier be collected before IDA* starts.
+                    frontier.discard();
+                    frontier = null;
+                    nodes = null;
+                    return IDAstar.search(root, heuristic, goal, run);
                 }
-
                 State currentState = frontier.pop();
-                expanded.add(currentState);
-                if(subGoalFrontier.isEmpty()){
-                    if(currentState.isGoalStateLastSubGoal()){
-                        //System.err.println("--------- Sub goal completed ---------");
-                        //printSearchStatus(expanded, frontier);
-                        //System.err.println("--------------------------------------");
-                        tmpPlan = currentState.extractPlan();
-                        currState = currentState;
-                        currState.setWall(subGoal);
-                        break;
-                    } else {
-                        for(State state: currentState.getExpandedStates()){
-                            //System.err.println("ADDING NEW NODE!");
-                            if(frontier.contains(state) && !expanded.contains(state)){
-                                frontier.add(state);
-                            }
-                        }
-                    }
-                } else{
-                    if(currentState.isSubGoalState(subGoal)){
-                        //System.err.println("--------- Sub goal completed ---------");
-                        //printSearchStatus(expanded, frontier);
-                        //System.err.println("--------------------------------------");
-                        tmpPlan = currentState.extractPlan();
-                        currState = currentState;
-                        currState.setWall(subGoal);
-                        break;
-                    } else {
-                        for(State state: currentState.getExpandedStates()){
-                            if(frontier.contains(state) && !expanded.contains(state)){
-                                frontier.add(state);
-                            }
-                        }
-                    }
+                if (!nodes.close(currentState)) {
+                    continue;
                 }
+                if (goal.test(currentState)) {
+                    return currentState;
+                }
+                expand(currentState, frontier, nodes, successors);
+            }
+            return null;
+        } finally {
+            if (frontier != null) {
+                frontier.discard();
+            }
+        }
+    }
+    /*
+        Pushes the children of currentState that are new or reached on a cheaper path than before. The nodes
+        decide that from the packed key of the child, so only the children that are pushed are built.
+    */
+    private static void expand(State currentState, Frontier frontier, SearchNodes nodes, ArrayList<Action[]> successors) {
+        currentState.getExpandedActions(successors);
+        for (Action[] jointAction : successors) {
+            int entry = nodes.offerChild(currentState, jointAction);
+            if (entry >= 0) {
+                State state = currentState.child(jointAction);
+                state.attach(nodes, entry);
+                frontier.add(state);
             }
         }
-        return tmpPlan;
     }
     public static class ExecutionInfo<F, S, State> {
         public final F nConf;
@@ -274,7 +373,7 @@ public class GraphSearch {
         return new ExecutionInfo<>(totalConflicts, firstConflict, currentState);
     }
 
-    public static void evaluateCostOfSubGoals(HashMap<Character, List<SubGoal>> agentSubGoals, State initialState, int[][][][] realDistanceGrid) {
+    public static void evaluateCostOfSubGoals(HashMap<Character, List<SubGoal>> agentSubGoals, State initialState, DistanceTable distances) {
         // Loop over each agent to evaluate their subGoals
         for (Character agent : agentSubGoals.keySet()) {
             List<SubGoal> subGoals = new ArrayList<>(agentSubGoals.get(agent));
@@ -285,7 +384,7 @@ public class GraphSearch {
 
             // Evaluate and update the cost for remaining subGoals
             while (!subGoals.isEmpty()) {
-                SubGoal nextSubGoal = findNextSubGoal(subGoals, assignedSubGoals, initialState, agent, realDistanceGrid);
+                SubGoal nextSubGoal = findNextSubGoal(subGoals, assignedSubGoals, initialState, agent, distances);
                 // Update the cost of the chosen subGoal and move it to the assigned stack
                 subGoals.remove(nextSubGoal);
                 assignedSubGoals.push(nextSubGoal);
@@ -299,18 +398,18 @@ public class GraphSearch {
         }
         return false;
     }
-    private static SubGoal findNextSubGoal(List<SubGoal> subGoals, Stack<SubGoal> assignedSubGoals, State initialState, Character agent, int[][][][] realDistanceGrid) {
+    private static SubGoal findNextSubGoal(List<SubGoal> subGoals, Stack<SubGoal> assignedSubGoals, State initialState, Character agent, DistanceTable distanceTable) {
         List<State.Pair<Integer, SubGoal>> distances = new ArrayList<>();
 
         if (assignedSubGoals.isEmpty()) {
             for (SubGoal subGoal : subGoals) {
-                int initialDistance = calculateInitialDistance(subGoal, initialState, agent, realDistanceGrid);
+                int initialDistance = calculateInitialDistance(subGoal, initialState, agent, distanceTable);
                 distances.add(new State.Pair<>(initialDistance + subGoal.getCost(), subGoal));
             }
         } else {
             for (SubGoal subGoal : subGoals) {
                 SubGoal lastAssigned = assignedSubGoals.peek();
-                int subsequentDistance = calculateSubsequentDistance(lastAssigned, subGoal, realDistanceGrid);
+                int subsequentDistance = calculateSubsequentDistance(lastAssigned, subGoal, distanceTable);
                 distances.add(new State.Pair<>(lastAssigned.getCost() + subsequentDistance + subGoal.getCost(), subGoal));
             }
         }
@@ -321,75 +420,18 @@ public class GraphSearch {
         selectedSubGoal.updateCost(distances.getFirst().first);
         return selectedSubGoal;
     }
-    private static int calculateInitialDistance(SubGoal subGoal, State initialState, Character agent, int[][][][] realDistanceGrid) {
-        return realDistanceGrid[initialState.agentRows[agent - '0']][initialState.agentCols[agent - '0']][(int) subGoal.box.getX()][(int) subGoal.box.getY()];
+    private static int calculateInitialDistance(SubGoal subGoal, State initialState, Character agent, DistanceTable distances) {
+        return distances.dist(initialState.agentRows[agent - '0'], initialState.agentCols[agent - '0'], (int) subGoal.box.getX(), (int) subGoal.box.getY());
     }
-    private static int calculateSubsequentDistance(SubGoal lastAssigned, SubGoal current, int[][][][] realDistanceGrid) {
-        return realDistanceGrid[(int) lastAssigned.goal.getX()][(int) lastAssigned.goal.getY()][(int) current.box.getX()][(int) current.box.getY()];
+    private static int calculateSubsequentDistance(SubGoal lastAssigned, SubGoal current, DistanceTable distances) {
+        return distances.dist((int) lastAssigned.goal.getX(), (int) lastAssigned.goal.getY(), (int) current.box.getX(), (int) current.box.getY());
     }
 
 
-    //Run Floyd-Warshall on map
-    private static int[][][][] preComputeRealDistance(State initialState) {
-        int N = initialState.walls.length;
-        int M = initialState.walls[0].length;
-        int[][][][] distanceGrid = new int[N][M][N][M];
-
-        // Initialize distances
-        for (int row = 0; row < N; row++) {
-            for (int col = 0; col < M; col++) {
-                for (int i = 0; i < N; i++) {
-                    for (int j = 0; j < M; j++) {
-                        distanceGrid[row][col][i][j] = (i == row && j == col) ? 0 : Integer.MAX_VALUE;
-                    }
-                }
-            }
-        }
-
-        // Set direct neighbors
-        for (int row = 0; row < N; row++) {
-            for (int col = 0; col < M; col++) {
-                if (!initialState.walls[row][col]) {
-                    int[] dRow = {-1, 1, 0, 0};
-                    int[] dCol = {0, 0, -1, 1};
-                    for (int d = 0; d < 4; d++) {
-                        int ni = row + dRow[d];
-                        int nj = col + dCol[d];
-                        if (ni >= 0 && ni < N && nj >= 0 && nj < M && !initialState.walls[ni][nj]) {
-                            distanceGrid[row][col][ni][nj] = 1;
-                        }
-                    }
-                }
-            }
-        }
-
-        // Apply the parallel Floyd-Warshall algorithm
-        parallelFloydWarshall(distanceGrid, N, M, initialState);
-
-        return distanceGrid;
-    }
-
-    private static void parallelFloydWarshall(int[][][][] distanceGrid, int N, int M, State initialState) {
-        IntStream.range(0, N).parallel().forEach(k -> {
-            for (int l = 0; l < M; l++) {
-                if (!initialState.walls[k][l]) {  // Ensure not to compute through walls
-                    for (int i = 0; i < N; i++) {
-                        for (int j = 0; j < M; j++) {
-                            for (int m = 0; m < N; m++) {
-                                for (int n = 0; n < M; n++) {
-                                    if (distanceGrid[i][j][k][l] != Integer.MAX_VALUE && distanceGrid[k][l][m][n] != Integer.MAX_VALUE) {
-                                        int newDist = distanceGrid[i][j][k][l] + distanceGrid[k][l][m][n];
-                                        if (distanceGrid[i][j][m][n] > newDist) {
-                                            distanceGrid[i][j][m][n] = newDist;
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        });
+    private static DistanceTable preComputeRealDistance(State initialState) {
+        DistanceTable distances = DistanceTable.forLevel(initialState.level.walls);
+        System.err.println("Real " + distances + ".");
+        return distances;
     }
     public static State[] splitStates(State initialState, HashMap<Character, List<SubGoal>> subGoals) {
         int numAgents = initialState.agentRows.length;
@@ -400,8 +442,8 @@ public class GraphSearch {
             // Initialize parameters for the individual agent's state
             int[] agentRow = { initialState.agentRows[agent] };
             int[] agentCol = { initialState.agentCols[agent] };
-            Color[] agentColor = { initialState.agentColors[agent] };
-            char[][] goals = new char[initialState.goals.length][initialState.goals[0].length];
+            Color[] agentColor = { initialState.level.agentColors[agent] };
+            char[][] goals = new char[initialState.level.goals.length][initialState.level.goals[0].length];
             char[][] boxes = new char[initialState.boxes.length][initialState.boxes[0].length];
 
             // Handle subGoals specifically assigned to this agent
@@ -411,7 +453,7 @@ public class GraphSearch {
             populateBoxesByAgentColor(agent, initialState, subGoals, boxes);
 
             // Assemble the new state for this agent
-            states[agent] = new State(agentRow, agentCol, agentColor, initialState.walls, boxes, State.boxColors, goals);
+            states[agent] = new State(agentRow, agentCol, agentColor, initialState.level.walls, boxes, State.boxColors, goals);
         }
 
         return states;
@@ -425,7 +467,7 @@ public class GraphSearch {
                     int boxY = (int) subGoal.box.getY();
                     boxes[boxX][boxY] = initialState.boxes[boxX][boxY];
                     if (subGoal.goal != null) {
-                        goals[(int) subGoal.goal.getX()][(int) subGoal.goal.getY()] = initialState.goals[(int) subGoal.goal.getX()][(int) subGoal.goal.getY()];
+                        goals[(int) subGoal.goal.getX()][(int) subGoal.goal.getY()] = initialState.level.goals[(int) subGoal.goal.getX()][(int) subGoal.goal.getY()];
                     }
                 } else if (subGoal.goal != null) {
                     goals[(int) subGoal.goal.getX()][(int) subGoal.goal.getY()] = '0';  // Set to '0' if goal exists without a corresponding box
@@ -438,7 +480,7 @@ public class GraphSearch {
             for (int row = 0; row < initialState.boxes.length; row++) {
                 for (int col = 0; col < initialState.boxes[row].length; col++) {
                     char box = initialState.boxes[row][col];
-                    if (box >= 'A' && box <= 'Z' && State.boxColors[box - 'A'] == initialState.agentColors[agent]) {
+                    if (box >= 'A' && box <= 'Z' && State.boxColors[box - 'A'] == initialState.level.agentColors[agent]) {
                         boxes[row][col] = box;  // Assign box to this agent's state if the color matches
                     }
                 }
@@ -457,10 +499,10 @@ public class GraphSearch {
 
     public static class Path {
 
-        public HashMap<Character,List<SubGoal>> path(State initialState, int[][][][] realDistanceGrid)
+        public HashMap<Character,List<SubGoal>> path(State initialState, DistanceTable distances)
         {
             //System.err.println("RUn PLANENER.....");
-            HashMap<Character,List<SubGoal>> subGoalsByBoxType = getSubGoalsByBoxType(initialState,realDistanceGrid);
+            HashMap<Character,List<SubGoal>> subGoalsByBoxType = getSubGoalsByBoxType(initialState,distances);
             HashMap<Color,List<SubGoal>> subGoalsByColor = getGoalByColor(subGoalsByBoxType);
             HashMap<Color,List<Character>> agentsByColor = getAgentByColor(initialState);
 
@@ -492,11 +534,11 @@ public class GraphSearch {
                     for(int taskId=0; taskId<subGoalSize;taskId++){
                         SubGoal subGoal = subGoalsByColor.get(color).get(taskId);
                         if(subGoal.goal!=null){
-                            distance = realDistanceGrid[initialState.agentRows[agent-'0']][initialState.agentCols[agent-'0']][(int)subGoal.box.getX()][(int)subGoal.box.getY()]
-                                    + realDistanceGrid[(int)subGoal.box.getX()][(int)subGoal.box.getY()][(int)subGoal.goal.getX()][(int)subGoal.goal.getY()];
+                            distance = distances.dist(initialState.agentRows[agent-'0'], initialState.agentCols[agent-'0'], (int)subGoal.box.getX(), (int)subGoal.box.getY())
+                                    + distances.dist((int)subGoal.box.getX(), (int)subGoal.box.getY(), (int)subGoal.goal.getX(), (int)subGoal.goal.getY());
                             //System.err.println("Must me in here...: " + distance);
                         } else {
-                            distance = realDistanceGrid[initialState.agentRows[agent-'0']][initialState.agentCols[agent-'0']][(int)subGoal.box.getX()][(int)subGoal.box.getY()];
+                            distance = distances.dist(initialState.agentRows[agent-'0'], initialState.agentCols[agent-'0'], (int)subGoal.box.getX(), (int)subGoal.box.getY());
                         }
                         for(int i=count; i < agentSize*subGoalSize; i=i+agentSize){
                             gridByColor.get(color)[i][taskId] = distance;
@@ -550,7 +592,7 @@ public class GraphSearch {
                         subGoals.put((char)(agent+'0'), new ArrayList<>());
                     }
                     Point goal = goals.get((char)(agent+'0')).iterator().next();
-                    int distance = realDistanceGrid[initialState.agentRows[agent]][initialState.agentCols[agent]][(int)goal.getX()][(int)goal.getY()];
+                    int distance = distances.dist(initialState.agentRows[agent], initialState.agentCols[agent], (int)goal.getX(), (int)goal.getY());
                     //System.err.println("#From agent" + " to " + goal.toString() + " is " + distance);
                     subGoals.get((char)(agent+'0')).add(size, new SubGoal(null, goal,distance));
                 }
@@ -561,11 +603,11 @@ public class GraphSearch {
 
         }
 
-        public HashMap<Character,List<SubGoal>> getSubGoalsByBoxType(State initialState, int[][][][] realDistanceGrid){
+        public HashMap<Character,List<SubGoal>> getSubGoalsByBoxType(State initialState, DistanceTable distances){
             HashMap<Character,List<SubGoal>> subGoalsByBoxType = new HashMap<>();
             HashMap<Character,HashSet<Point>> boxes = initialState.getBoxesCoord();
             HashMap<Character,HashSet<Point>> goals = initialState.getGoals();
-            HashMap<Character,State.Pair<double[][],SubGoal[][]>> taskByBoxType = getDistanceOfBoxesToGoals(realDistanceGrid,boxes,goals);
+            HashMap<Character,State.Pair<double[][],SubGoal[][]>> taskByBoxType = getDistanceOfBoxesToGoals(distances,boxes,goals);
             for(Character boxType: taskByBoxType.keySet()){
                 if(!subGoalsByBoxType.containsKey(boxType)){
                     subGoalsByBoxType.put(boxType, new ArrayList<>());
@@ -596,7 +638,7 @@ public class GraphSearch {
             return subGoalsByBoxType;
         }
 
-        public HashMap<Character, State.Pair<double[][], SubGoal[][]>> getDistanceOfBoxesToGoals(int[][][][] realDistanceGrid, HashMap<Character, HashSet<Point>> boxes, HashMap<Character, HashSet<Point>> goals) {
+        public HashMap<Character, State.Pair<double[][], SubGoal[][]>> getDistanceOfBoxesToGoals(DistanceTable distances, HashMap<Character, HashSet<Point>> boxes, HashMap<Character, HashSet<Point>> goals) {
             HashMap<Character, State.Pair<double[][], SubGoal[][]>> mathHash = new HashMap<>();
             // Iterate over all goal types that are uppercase letters (box goals).
             goals.keySet().stream()
@@ -609,7 +651,7 @@ public class GraphSearch {
                         initializeMatrix(distanceGraph); // Initialize with a high value
                         initializeSubGoalMatrix(goalMap, boxes.get(goal)); // Initialize SubGoals with a high default cost
 
-                        updateMatrices(realDistanceGrid, goal, boxes, goals, distanceGraph, goalMap);
+                        updateMatrices(distances, goal, boxes, goals, distanceGraph, goalMap);
 
                         mathHash.put(goal, new State.Pair<>(distanceGraph, goalMap));
                     });
@@ -633,12 +675,12 @@ public class GraphSearch {
             }
         }
 
-        private void updateMatrices(int[][][][] realDistanceGrid, char goal, HashMap<Character, HashSet<Point>> boxes, HashMap<Character, HashSet<Point>> goals, double[][] distanceGraph, SubGoal[][] goalMap) {
+        private void updateMatrices(DistanceTable distances, char goal, HashMap<Character, HashSet<Point>> boxes, HashMap<Character, HashSet<Point>> goals, double[][] distanceGraph, SubGoal[][] goalMap) {
             int i = 0;
             for (Point boxPoint : boxes.get(goal)) {
                 int j = 0;
                 for (Point goalPoint : goals.get(goal)) {
-                    double distance = realDistanceGrid[(int) boxPoint.getX()][(int) boxPoint.getY()][(int) goalPoint.getX()][(int) goalPoint.getY()];
+                    double distance = distances.dist((int) boxPoint.getX(), (int) boxPoint.getY(), (int) goalPoint.getX(), (int) goalPoint.getY());
                     distanceGraph[j][i] = distance;
                     goalMap[j][i] = new SubGoal(boxPoint, goalPoint, (int) distance);
                     j++;
@@ -670,7 +712,7 @@ public class GraphSearch {
         public HashMap<Color, List<Character>> getAgentByColor(State initialState) {
             HashMap<Color, List<Character>> agentsByColor = new HashMap<>();
             for (int agent = 0; agent < initialState.agentRows.length; agent++) {
-                Color color = initialState.agentColors[agent];
+                Color color = initialState.level.agentColors[agent];
                 agentsByColor.computeIfAbsent(color, k -> new ArrayList<>()).add((char) (agent + '0'));
             }
             return agentsByColor;
@@ -1,14 +1,16 @@
 package searchclient;
 
-import java.awt.Point;
 import java.util.Comparator;
 
 public abstract class Heuristic
         implements Comparator<State>
 {
     State initialState;
-    int[][][][] realDistanceGrid;
+    DistanceTable distances;
     SubGoal subGoal;
+    int boxId = -1;
+    // Push and pull distances to the goal of a box sub goal, null when there are none.
+    BoxDistanceTable boxDistances;
 
     public Heuristic(State initialState)
     {
@@ -16,11 +18,15 @@ public abstract class Heuristic
     }
 
 
-    public Heuristic(State initialState, int[][][][] realDistanceGrid, SubGoal subGoal)
+    public Heuristic(State initialState, DistanceTable distances, SubGoal subGoal)
     {
         this.initialState = initialState;
-        this.realDistanceGrid = realDistanceGrid;
+        this.distances = distances;
         this.subGoal = subGoal;
+        if (subGoal != null && subGoal.box != null) {
+            this.boxId = initialState.level.boxId((int) subGoal.box.getX(), (int) subGoal.box.getY());
+            this.boxDistances = distances.boxDistances(initialState.level.cell((int) subGoal.goal.getX(), (int) subGoal.goal.getY()));
+        }
         // Here's a chance to pre-process the static parts of the level.
     }
 
@@ -31,18 +37,24 @@ public abstract class Heuristic
         }
 
         if (this.subGoal.box != null) {
-            Point boxLocation = s.BoxPoint.get(this.subGoal.box);
-            int boxRow = (int) boxLocation.getX();
-            int boxCol = (int) boxLocation.getY();
-            int goalRow = (int) this.subGoal.goal.getX();
-            int goalCol = (int) this.subGoal.goal.getY();
-            int costToBox = this.realDistanceGrid[s.agentRows[0]][s.agentCols[0]][boxRow][boxCol];
-            int costToGoal = this.realDistanceGrid[boxRow][boxCol][goalRow][goalCol];
-            maxCost = costToBox + costToGoal;
+            int boxCell = s.boxCells[this.boxId];
+            int agentCell = s.level.cell(s.agentRows[0], s.agentCols[0]);
+            // The walk to the box and the push and pull moves from there, and DEAD_END if it is stuck.
+            if (this.boxDistances != null) {
+                return this.boxDistances.h(agentCell, boxCell);
+            }
+            // Without a table (DistanceOracle): the agent ends next to the box, not on it, before moving it.
+            int goalCell = s.level.cell((int) this.subGoal.goal.getX(), (int) this.subGoal.goal.getY());
+            int costToBox = this.distances.dist(agentCell, boxCell);
+            int costToGoal = this.distances.dist(boxCell, goalCell);
+            if (costToBox == DistanceTable.UNREACHABLE || costToGoal == DistanceTable.UNREACHABLE) {
+                return BoxDistanceTable.DEAD_END;
+            }
+            maxCost = costToGoal == 0 ? 0 : costToBox - 1 + costToGoal;
         } else {
             int goalRow = (int) this.subGoal.goal.getX();
             int goalCol = (int) this.subGoal.goal.getY();
-            maxCost = this.realDistanceGrid[s.agentRows[0]][s.agentCols[0]][goalRow][goalCol];
+            maxCost = this.distances.dist(s.agentRows[0], s.agentCols[0], goalRow, goalCol);
         }
 
         return maxCost;
@@ -85,9 +97,9 @@ class HeuristicSerializedAstar
 {
 
 
-    public HeuristicSerializedAstar(State initialState, int[][][][] realDistanceGrid, SubGoal subGoal)
+    public HeuristicSerializedAstar(State initialState, DistanceTable distances, SubGoal subGoal)
     {
-        super(initialState,realDistanceGrid,subGoal);
+        super(initialState,distances,subGoal);
     }
 
     @Override
@@ -104,20 +116,28 @@ class HeuristicSerializedAstar
 }
 class HeuristicMBA extends Heuristic {
 
-    public HeuristicMBA(State initialState, int[][][][] realDistanceGrid, SubGoal subGoal) {
-        super(initialState, realDistanceGrid, subGoal);
+    // Weight of h, 1 is plain A*. Higher weights find a plan faster and give up on it being the shortest.
+    private final double weight;
+
+    public HeuristicMBA(State initialState, DistanceTable distances, SubGoal subGoal) {
+        this(initialState, distances, subGoal, 1);
+    }
+
+    public HeuristicMBA(State initialState, DistanceTable distances, SubGoal subGoal, double weight) {
+        super(initialState, distances, subGoal);
+        this.weight = weight;
     }
 
 
 
     @Override
     public int f(State s) {
-        return s.g() + this.h(s);
+        return s.g() + (int) (this.weight * this.h(s));
     }
 
     @Override
     public String toString() {
-        return "Serialized A* evaluation";
+        return this.weight == 1 ? "Serialized A* evaluation" : String.format("Serialized WA*(%.1f) evaluation", this.weight);
     }
 }
 class HeuristicWeightedAStar
@@ -0,0 +1,59 @@
+package searchclient;
+
+import java.util.Arrays;
+
+/*
+    Heuristic of searches over joint states (see PartialExpansion): h is the highest distance of an agent to
+    its own goal cell, 0 for the agents without one. Each agent moves at most one cell per joint action, so
+    h can only change by one and a child's h is known from the cells its agents move to (agentH).
+*/
+class HeuristicJoint extends Heuristic {
+
+    private final int[] goalRows;
+    private final int[] goalCols;
+
+    public HeuristicJoint(State initialState, DistanceTable distances) {
+        super(initialState, distances, null);
+        int numAgents = initialState.agentRows.length;
+        this.goalRows = new int[numAgents];
+        this.goalCols = new int[numAgents];
+        Arrays.fill(this.goalRows, -1);
+        char[][] goals = initialState.level.goals;
+        for (int row = 0; row < goals.length; row++) {
+            for (int col = 0; col < goals[row].length; col++) {
+                int agent = goals[row][col] - '0';
+                if (0 <= agent && agent < numAgents) {
+                    this.goalRows[agent] = row;
+                    this.goalCols[agent] = col;
+                }
+            }
+        }
+    }
+
+    // Part of h of the agent when it stands at row, col.
+    public int agentH(int agent, int row, int col) {
+        if (this.goalRows[agent] < 0) {
+            return 0;
+        }
+        return this.distances.dist(row, col, this.goalRows[agent], this.goalCols[agent]);
+    }
+
+    @Override
+    public int h(State s) {
+        int maxCost = 0;
+        for (int agent = 0; agent < s.agentRows.length; agent++) {
+            maxCost = Math.max(maxCost, this.agentH(agent, s.agentRows[agent], s.agentCols[agent]));
+        }
+        return maxCost;
+    }
+
+    @Override
+    public int f(State s) {
+        return s.g() + this.h(s);
+    }
+
+    @Override
+    public String toString() {
+        return "Joint A* evaluation";
+    }
+}
@@ -0,0 +1,221 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Predicate;
+
+/*
+    Iterative deepening A*, the fallback of GraphSearch.bestFirst for when the heap is running out.
+
+    Each iteration is a depth-first search that only follows states whose f is within the threshold, and the
+    next threshold is the lowest f that was cut off. Memory use is the path being searched (the children of
+    every state on it) plus a transposition table of fixed size, no matter how long the search runs. The
+    price is that states are expanded again in every iteration.
+
+    The search starts when the heap is nearly full, so the table takes at most a quarter of the heap that is
+    left once the search that ran out has been collected, up to MAX_SLOTS.
+
+    The table remembers the lowest g at which a state has been reached in the current iteration, so a state
+    reached again at the same g or higher is not searched twice. When the slots of a key are all taken, the
+    state with the highest g is forgotten, its subtree is the cheapest to search again.
+*/
+public class IDAstar
+{
+    // Slots of the transposition table at most, the table is a power of two of whole buckets.
+    private static final int MAX_SLOTS = 1 << 18;
+    private static final int BUCKET = 4;
+
+    private final Heuristic heuristic;
+    private final Predicate<State> goal;
+    private final GraphSearch.Run run;
+    private final Comparator<State> byF;
+
+    private final int keyLength;
+    private final long[] scratch;
+    private final int slots;
+    private final long[] keys;
+    private final int[] gs;
+    private final int[] iterations;
+
+    /*
+        Searches from root for a state that satisfies goal, in order of the heuristic. Returns the goal state
+        with a plan from the start of the level (extractPlan), or null if there is none. Throws
+        DeadlineExceeded when it goes on past the deadline of a stoppable run.
+    */
+    static State search(State root, Heuristic heuristic, Predicate<State> goal, GraphSearch.Run run)
+    {
+        return new IDAstar(root, heuristic, goal, run).run(root);
+    }
+
+    private IDAstar(State root, Heuristic heuristic, Predicate<State> goal, GraphSearch.Run run)
+    {
+        this.heuristic = heuristic;
+        this.goal = goal;
+        this.run = run;
+        this.byF = Comparator.comparingInt(heuristic::f);
+        this.keyLength = root.packedLength();
+        this.scratch = new long[this.keyLength];
+        this.slots = slots(this.keyLength);
+        this.keys = new long[this.slots * this.keyLength];
+        this.gs = new int[this.slots];
+        this.iterations = new int[this.slots];
+    }
+
+    // Slots that fit in a quarter of the heap that is left, between one bucket and MAX_SLOTS.
+    private static int slots(int keyLength)
+    {
+        // The frontier of the search that ran out was dropped just before.
+        System.gc();
+        long headroom = (long) ((Memory.max() - Memory.used()) * 1024 * 1024) / 4;
+        long fit = headroom / ((long) keyLength * Long.BYTES + 2 * Integer.BYTES);
+        return (int) Math.max(BUCKET, Math.min(MAX_SLOTS, Long.highestOneBit(Math.max(1, fit))));
+    }
+
+    private State run(State root)
+    {
+        // The root may still hold on to the nodes of the search that ran out of memory, only its plan is needed.
+        Action[][] prefix = root.extractPlan();
+        new SearchNodes(root, prefix);
+
+        ArrayList<Frame> path = new ArrayList<>();
+        ArrayList<Action[]> successors = new ArrayList<>(64);
+        int threshold = this.heuristic.f(root);
+        int expansions = 0;
+        for (int iteration = 1; threshold != Integer.MAX_VALUE; iteration++)
+        {
+            int next = Integer.MAX_VALUE;
+            root.pack(this.scratch);
+            this.seen(root.g, iteration);
+            path.clear();
+            State state = root;
+            while (state != null)
+            {
+                if (this.goal.test(state))
+                {
+                    System.err.format("IDA* found a plan with threshold %d after %d iterations, %,d table slots.\n",
+                                      threshold, iteration, this.slots);
+                    return this.found(state, prefix, path);
+                }
+
+                if ((++expansions & GraphSearch.DEADLINE_CHECK_MASK) == 0)
+                {
+                    this.run.checkDeadline();
+                }
+
+                // Children within the threshold that are not searched already, lowest f first.
+                ArrayList<State> children = new ArrayList<>();
+                state.getExpandedActions(successors);
+                for (Action[] jointAction : successors)
+                {
+                    state.packChild(jointAction, this.scratch);
+                    if (this.seen(state.g + 1, iteration))
+                    {
+                        continue;
+                    }
+                    State child = state.child(jointAction);
+                    int f = this.heuristic.f(child);
+                    if (f > threshold)
+                    {
+                        next = Math.min(next, f);
+                        continue;
+                    }
+                    children.add(child);
+                }
+                children.sort(this.byF);
+                path.add(new Frame(children));
+
+                // Next state of the depth-first search, backtracking over the states with no children left.
+                state = null;
+                while (state == null && !path.isEmpty())
+                {
+                    Frame frame = path.get(path.size() - 1);
+                    if (frame.next < frame.children.size())
+                    {
+                        state = frame.children.get(frame.next++);
+                    }
+                    else
+                    {
+                        path.remove(path.size() - 1);
+                    }
+                }
+            }
+            threshold = next;
+        }
+        return null;
+    }
+
+    // The plan of the goal is the prefix of the root followed by the joint actions on the path.
+    private State found(State goal, Action[][] prefix, ArrayList<Frame> path)
+    {
+        Action[][] plan = Arrays.copyOf(prefix, goal.g);
+        int pos = prefix.length;
+        for (Frame frame : path)
+        {
+            plan[pos++] = frame.children.get(frame.next - 1).jointAction;
+        }
+        new SearchNodes(goal, plan);
+        return goal;
+    }
+
+    /*
+        Whether the state packed in the scratch buffer has been reached at g or lower in this iteration.
+        If not, it is recorded at g.
+    */
+    private boolean seen(int g, int iteration)
+    {
+        int bucket = (VisitedTable.hash(this.scratch) & (this.slots - 1)) & -BUCKET;
+        int victim = bucket;
+        for (int slot = bucket; slot < bucket + BUCKET; slot++)
+        {
+            if (this.iterations[slot] != iteration)
+            {
+                // Free, or left from an earlier iteration.
+                victim = slot;
+                break;
+            }
+            if (this.keyEquals(slot))
+            {
+                if (this.gs[slot] <= g)
+                {
+                    return true;
+                }
+                this.gs[slot] = g;
+                return false;
+            }
+            if (this.gs[slot] > this.gs[victim])
+            {
+                victim = slot;
+            }
+        }
+        System.arraycopy(this.scratch, 0, this.keys, victim * this.keyLength, this.keyLength);
+        this.gs[victim] = g;
+        this.iterations[victim] = iteration;
+        return false;
+    }
+
+    private boolean keyEquals(int slot)
+    {
+        int offset = slot * this.keyLength;
+        for (int i = 0; i < this.keyLength; i++)
+        {
+            if (this.keys[offset + i] != this.scratch[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A state on the path: its children and the next one to search.
+    private static class Frame
+    {
+        final ArrayList<State> children;
+        int next;
+
+        Frame(ArrayList<State> children)
+        {
+            this.children = children;
+        }
+    }
+}
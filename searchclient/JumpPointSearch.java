@@ -0,0 +1,126 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/*
+    Jump point search for an agent walking through a level with no constraints left on it.
+
+    On a grid of equal-cost moves most shortest walks are the same walk in a different order of the moves.
+    This search only follows the canonical one, which makes its horizontal moves before its vertical ones,
+    and turns from vertical to horizontal only where a wall next to the previous cell made that impossible
+    earlier (a forced turn). So a vertical walk goes straight until such a cell (a jump point), and a
+    horizontal walk goes straight until a cell from which a vertical walk reaches a jump point or the goal.
+    A* then only expands jump points, with the Manhattan distance as heuristic, and the walk in between is
+    filled in afterwards.
+
+    Where those cells are only depends on the walls, so they are precomputed once per version of the level
+    (JumpTable, StaticLevel.jumpTable), in the style of JPS+. Boxes are ignored: a walk through the walls
+    alone is at least as short as any walk around the boxes too, so if the walk found has no box on it, it is
+    a shortest walk. It is replayed through BidirectionalSearch.walk, which checks the boxes, and if one is
+    in the way navigate returns null and the caller goes on with the bidirectional search.
+*/
+public class JumpPointSearch
+{
+    /*
+        Walks the agent of the single-agent state root to the goal cell of subGoal. Only for roots with no
+        constraints from now on. Returns the state at the goal with its plan from the start of the level
+        (extractPlan), or null if the walk is blocked by a box or there is none.
+    */
+    public static State navigate(State root, SubGoal subGoal, Predicate<State> goal)
+    {
+        StaticLevel level = root.level;
+        int start = level.cell(root.agentRows[0], root.agentCols[0]);
+        int[] cells = path(level.jumpTable(), start, level.cell((int) subGoal.goal.getX(), (int) subGoal.goal.getY()));
+        if (cells == null)
+        {
+            return null;
+        }
+        return BidirectionalSearch.walk(root, cells, goal);
+    }
+
+    // Cells of a shortest walk from start to goal through the walls of the table, or null if there is none.
+    static int[] path(JumpTable table, int start, int goal)
+    {
+        if (start == goal || !table.isFree(start) || !table.isFree(goal))
+        {
+            return null;
+        }
+
+        // A node is a cell and the direction it was entered from, start is entered from every direction.
+        int numNodes = table.numCells * 4;
+        int[] g = new int[numNodes];
+        Arrays.fill(g, Integer.MAX_VALUE);
+        int[] parent = new int[numNodes];
+        PriorityQueue<long[]> open = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int direction = 0; direction < 4; direction++)
+        {
+            int node = start * 4 + direction;
+            g[node] = 0;
+            parent[node] = -1;
+        }
+        // Horizontal first: from the start every direction is natural, as after a horizontal move.
+        open.add(new long[]{table.distance(start, goal), start * 4 + JumpTable.E});
+        open.add(new long[]{table.distance(start, goal), start * 4 + JumpTable.W});
+
+        int[] successors = new int[4];
+        while (!open.isEmpty())
+        {
+            long[] top = open.poll();
+            int node = (int) top[1];
+            int cell = node / 4;
+            if (top[0] != g[node] + table.distance(cell, goal))
+            {
+                continue;
+            }
+            if (cell == goal)
+            {
+                return fillIn(table, node, parent);
+            }
+
+            int count = table.successors(cell, node % 4, goal, successors);
+            for (int i = 0; i < count; i++)
+            {
+                int next = successors[i];
+                int cost = g[node] + table.distance(cell, next / 4);
+                if (cost < g[next])
+                {
+                    g[next] = cost;
+                    parent[next] = node;
+                    open.add(new long[]{cost + table.distance(next / 4, goal), next});
+                }
+            }
+        }
+        return null;
+    }
+
+    // Fills in the straight walks between the jump points that lead to node.
+    private static int[] fillIn(JumpTable table, int node, int[] parent)
+    {
+        int length = 0;
+        for (int n = node; parent[n] >= 0; n = parent[n])
+        {
+            length += table.distance(n / 4, parent[n] / 4);
+        }
+        int[] cells = new int[length + 1];
+        int pos = length;
+        for (int n = node; parent[n] >= 0; n = parent[n])
+        {
+            int from = parent[n] / 4;
+            int to = n / 4;
+            int step = table.step(from, to);
+            for (int cell = to; cell != from; cell -= step)
+            {
+                cells[pos--] = cell;
+            }
+        }
+        int first = node;
+        while (parent[first] >= 0)
+        {
+            first = parent[first];
+        }
+        cells[0] = first / 4;
+        return cells;
+    }
+}
@@ -0,0 +1,221 @@
+package searchclient;
+
+/*
+    Jump tables of one version of the walls (see JumpPointSearch). For every free cell and direction:
+    run is the number of free cells straight ahead before a wall. For north and south, jump is the distance
+    to the first cell with a forced turn east or west, that is a free cell to that side while the cell to
+    that side of the previous one is a wall. For east and west, jump is the distance to the first cell from
+    which the north or the south jump finds such a cell. 0 means there is no such cell before the wall.
+*/
+class JumpTable
+{
+    static final int N = 0;
+    static final int S = 1;
+    static final int E = 2;
+    static final int W = 3;
+    private static final int[] ROW_DELTA = {-1, 1, 0, 0};
+    private static final int[] COL_DELTA = {0, 0, 1, -1};
+
+    final int numCells;
+    private final int numRows;
+    private final int numCols;
+    private final boolean[] free;
+    private final int[][] run = new int[4][];
+    private final int[][] jump = new int[4][];
+
+    JumpTable(StaticLevel level)
+    {
+        this.numRows = level.numRows;
+        this.numCols = level.numCols;
+        this.numCells = this.numRows * this.numCols;
+        this.free = new boolean[this.numCells];
+        for (int row = 0; row < this.numRows; row++)
+        {
+            for (int col = 0; col < this.numCols; col++)
+            {
+                this.free[row * this.numCols + col] = col < level.walls[row].length && !level.walls[row][col];
+            }
+        }
+        for (int direction = 0; direction < 4; direction++)
+        {
+            this.run[direction] = new int[this.numCells];
+            this.jump[direction] = new int[this.numCells];
+        }
+
+        // Every table entry depends on the entry of the next cell ahead, so each direction is filled from its far end.
+        for (int row = 0; row < this.numRows; row++)
+        {
+            for (int col = 0; col < this.numCols; col++)
+            {
+                this.fill(N, row, col);
+                this.fill(W, row, col);
+            }
+        }
+        for (int row = this.numRows - 1; row >= 0; row--)
+        {
+            for (int col = this.numCols - 1; col >= 0; col--)
+            {
+                this.fill(S, row, col);
+                this.fill(E, row, col);
+            }
+        }
+        // The horizontal jumps need all of the vertical ones.
+        for (int row = 0; row < this.numRows; row++)
+        {
+            for (int col = 0; col < this.numCols; col++)
+            {
+                this.fillHorizontal(W, row, col);
+            }
+            for (int col = this.numCols - 1; col >= 0; col--)
+            {
+                this.fillHorizontal(E, row, col);
+            }
+        }
+    }
+
+    boolean isFree(int cell)
+    {
+        return this.free[cell];
+    }
+
+    // Manhattan distance, the length of the walk between two jump points on a line.
+    int distance(int from, int to)
+    {
+        return Math.abs(from / this.numCols - to / this.numCols) + Math.abs(from % this.numCols - to % this.numCols);
+    }
+
+    // Cell delta of one step from a cell towards another on the same row or column.
+    int step(int from, int to)
+    {
+        if (from / this.numCols == to / this.numCols)
+        {
+            return to > from ? 1 : -1;
+        }
+        return to > from ? this.numCols : -this.numCols;
+    }
+
+    /*
+        Jump points reached from cell, entered moving in direction, as nodes (cell * 4 + direction they are
+        entered in). Returns how many were written to successors.
+    */
+    int successors(int cell, int direction, int goal, int[] successors)
+    {
+        int count = 0;
+        if (direction == E || direction == W)
+        {
+            count = this.add(successors, count, this.jumpHorizontal(cell, direction, goal), direction);
+            count = this.add(successors, count, this.jumpVertical(cell, N, goal), N);
+            count = this.add(successors, count, this.jumpVertical(cell, S, goal), S);
+            return count;
+        }
+        count = this.add(successors, count, this.jumpVertical(cell, direction, goal), direction);
+        int previous = this.next(cell, direction ^ 1);
+        for (int side = E; side <= W; side++)
+        {
+            if (this.isForced(cell, previous, side))
+            {
+                count = this.add(successors, count, this.jumpHorizontal(cell, side, goal), side);
+            }
+        }
+        return count;
+    }
+
+    private int add(int[] successors, int count, int cell, int direction)
+    {
+        if (cell >= 0)
+        {
+            successors[count++] = cell * 4 + direction;
+        }
+        return count;
+    }
+
+    // First jump point or the goal going north or south from cell, or -1.
+    private int jumpVertical(int cell, int direction, int goal)
+    {
+        int distance = this.jump[direction][cell];
+        int rows = goal / this.numCols - cell / this.numCols;
+        if (goal % this.numCols == cell % this.numCols && Integer.signum(rows) == ROW_DELTA[direction]
+                && Math.abs(rows) <= this.run[direction][cell] && (distance == 0 || Math.abs(rows) < distance))
+        {
+            distance = Math.abs(rows);
+        }
+        return distance == 0 ? -1 : cell + distance * ROW_DELTA[direction] * this.numCols;
+    }
+
+    // First jump point going east or west from cell, counting the cell below or above the goal as one, or -1.
+    private int jumpHorizontal(int cell, int direction, int goal)
+    {
+        int distance = this.jump[direction][cell];
+        int cols = goal % this.numCols - cell % this.numCols;
+        if (Integer.signum(cols) == COL_DELTA[direction] && Math.abs(cols) <= this.run[direction][cell]
+                && (distance == 0 || Math.abs(cols) < distance))
+        {
+            int turn = cell + cols;
+            int rows = goal / this.numCols - cell / this.numCols;
+            if (rows == 0 || Math.abs(rows) <= this.run[rows < 0 ? N : S][turn])
+            {
+                distance = Math.abs(cols);
+            }
+        }
+        return distance == 0 ? -1 : cell + distance * COL_DELTA[direction];
+    }
+
+    private boolean isForced(int cell, int previous, int side)
+    {
+        int open = this.next(cell, side);
+        int blocked = previous < 0 ? -1 : this.next(previous, side);
+        return open >= 0 && this.free[open] && (blocked < 0 || !this.free[blocked]);
+    }
+
+    private void fill(int direction, int row, int col)
+    {
+        int cell = row * this.numCols + col;
+        int next = this.next(cell, direction);
+        if (!this.free[cell] || next < 0 || !this.free[next])
+        {
+            return;
+        }
+        this.run[direction][cell] = this.run[direction][next] + 1;
+        if (direction == N || direction == S)
+        {
+            if (this.isForced(next, cell, E) || this.isForced(next, cell, W))
+            {
+                this.jump[direction][cell] = 1;
+            }
+            else if (this.jump[direction][next] > 0)
+            {
+                this.jump[direction][cell] = this.jump[direction][next] + 1;
+            }
+        }
+    }
+
+    private void fillHorizontal(int direction, int row, int col)
+    {
+        int cell = row * this.numCols + col;
+        int next = this.next(cell, direction);
+        if (!this.free[cell] || next < 0 || !this.free[next])
+        {
+            return;
+        }
+        if (this.jump[N][next] > 0 || this.jump[S][next] > 0)
+        {
+            this.jump[direction][cell] = 1;
+        }
+        else if (this.jump[direction][next] > 0)
+        {
+            this.jump[direction][cell] = this.jump[direction][next] + 1;
+        }
+    }
+
+    // Cell one step in the direction, or -1 outside of the level.
+    private int next(int cell, int direction)
+    {
+        int row = cell / this.numCols + ROW_DELTA[direction];
+        int col = cell % this.numCols + COL_DELTA[direction];
+        if (row < 0 || row >= this.numRows || col < 0 || col >= this.numCols)
+        {
+            return -1;
+        }
+        return row * this.numCols + col;
+    }
+}
@@ -1,14 +1,28 @@
 package searchclient;
 import java.awt.Point;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 
 public class Manage {
 
+    private static final int[] NONE = new int[0];
+
     HashMap<Character, HashSet<Constrain>> constrains;
     private int hash = 0;
 
+    /*
+        The sets above are what identifies a CBS node (hashCode/equals), but searching through them on every
+        expansion is slow. Every constraint is therefore also indexed per agent and per timeframe:
+        agentIndex[agent - '0'][timeframe] holds the cells of the "agent" constraints and boxIndex the cells
+        of the "box" constraints, packed as row << 16 | col. An agent rarely has more than a couple of
+        constraints at the same timeframe, so the lookups are constant time and allocate nothing.
+    */
+    private int[][][] agentIndex = new int[0][][];
+    private int[][][] boxIndex = new int[0][][];
+    private int[] maxTimeFrames = NONE;
+    private int maxTimeFrame = -1;
+
     public Manage(){
         this.constrains = new HashMap<>();
     }
@@ -19,23 +33,50 @@ public class Manage {
             HashSet<Constrain> copiedSet = new HashSet<>(constrain.constrains.get(agent));
             this.constrains.put(agent, copiedSet);
         }
+        // Index rows are copied on write, so they can be shared with the copied Manage.
+        this.agentIndex = copyIndex(constrain.agentIndex);
+        this.boxIndex = copyIndex(constrain.boxIndex);
+        this.maxTimeFrames = Arrays.copyOf(constrain.maxTimeFrames, constrain.maxTimeFrames.length);
+        this.maxTimeFrame = constrain.maxTimeFrame;
     }
 
     public int getMaxTimeFrame(Character agent){
-        Constrain maxAgentValueInMap = (Collections.max(this.constrains.get(agent)));
-        return maxAgentValueInMap.timeframe;
+        return this.maxTimeFrames[agent - '0'];
+    }
+
+    // Latest timeframe of any constraint of any agent, -1 if there are none.
+    public int getMaxTimeFrame(){
+        return this.maxTimeFrame;
     }
 
     public boolean isAgentConstrained(Character agent, int timeframe, Point point){
-        Constrain ts = new Constrain(timeframe, point, "agent");
-        if(this.constrains.containsKey(agent)){
-            //System.err.println("Agent: " + agent + " timeframe: " + timeframe + " Point: " + point.toString());
-            return this.constrains.get(agent).contains(ts);
+        return this.isAgentConstrained(agent, timeframe, (int) point.getX(), (int) point.getY());
+    }
+
+    public boolean isAgentConstrained(char agent, int timeframe, int row, int col){
+        int[] cells = lookup(this.agentIndex, agent, timeframe);
+        int cell = pack(row, col);
+        for (int c : cells) {
+            if (c == cell) {
+                return true;
+            }
         }
-        //System.err.println("Agent: " + agent + " timeframe: " + timeframe + " Point: " + point.toString());
         return false;
     }
 
+    // Cells of the "box" constraints of the agent at the timeframe, packed as row << 16 | col. Do not modify.
+    public int[] getBoxConstrains(char agent, int timeframe){
+        return lookup(this.boxIndex, agent, timeframe);
+    }
+
+    public static int row(int cell){
+        return cell >>> 16;
+    }
+
+    public static int col(int cell){
+        return cell & 0xFFFF;
+    }
+
     public boolean isEmpty(){
         return this.constrains.isEmpty();
     }
@@ -45,10 +86,62 @@ public class Manage {
         if (!this.constrains.containsKey(agent)) {
             this.constrains.put(agent, new HashSet<>());
         }
-        this.constrains.get(agent).add(ts);
+        if (!this.constrains.get(agent).add(ts)) {
+            return true;
+        }
+
+        int id = agent - '0';
+        if (id >= this.maxTimeFrames.length) {
+            int old = this.maxTimeFrames.length;
+            this.maxTimeFrames = Arrays.copyOf(this.maxTimeFrames, id + 1);
+            Arrays.fill(this.maxTimeFrames, old, id + 1, -1);
+        }
+        this.maxTimeFrames[id] = Math.max(this.maxTimeFrames[id], timeframe);
+        this.maxTimeFrame = Math.max(this.maxTimeFrame, timeframe);
+        if ("agent".equals(type)) {
+            this.agentIndex = insert(this.agentIndex, id, timeframe, pack((int) point.getX(), (int) point.getY()));
+        } else if ("box".equals(type)) {
+            this.boxIndex = insert(this.boxIndex, id, timeframe, pack((int) point.getX(), (int) point.getY()));
+        }
         return true;
     }
 
+    private static int pack(int row, int col){
+        return row << 16 | col;
+    }
+
+    private static int[] lookup(int[][][] index, char agent, int timeframe){
+        int id = agent - '0';
+        if (id < 0 || id >= index.length || index[id] == null || timeframe < 0 || timeframe >= index[id].length) {
+            return NONE;
+        }
+        int[] cells = index[id][timeframe];
+        return cells == null ? NONE : cells;
+    }
+
+    // Returns the index with the cell added. Rows may be shared with copies of this Manage, so they are copied before being written.
+    private static int[][][] insert(int[][][] index, int id, int timeframe, int cell){
+        if (id >= index.length) {
+            index = Arrays.copyOf(index, id + 1);
+        }
+        int[][] byTime = index[id] == null ? new int[timeframe + 1][] : index[id];
+        if (timeframe >= byTime.length) {
+            byTime = Arrays.copyOf(byTime, Math.max(timeframe + 1, byTime.length * 2));
+        } else if (byTime == index[id]) {
+            byTime = byTime.clone();
+        }
+        int[] cells = byTime[timeframe] == null ? NONE : byTime[timeframe];
+        cells = Arrays.copyOf(cells, cells.length + 1);
+        cells[cells.length - 1] = cell;
+        byTime[timeframe] = cells;
+        index[id] = byTime;
+        return index;
+    }
+
+    private static int[][][] copyIndex(int[][][] index){
+        return Arrays.copyOf(index, index.length);
+    }
+
     @Override
     public int hashCode()
     {
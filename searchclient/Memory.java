@@ -5,6 +5,9 @@ public class Memory
     private static final Runtime RUNTIME = Runtime.getRuntime();
     private static final double MB = 1024 * 1024;
 
+    // Fraction of the max heap above which the searches switch to a memory-bounded mode, see GraphSearch.bestFirst.
+    private static double limit = 0.8;
+
     public static double used()
     {
         return (RUNTIME.totalMemory() - RUNTIME.freeMemory()) / MB;
@@ -25,12 +28,57 @@ public class Memory
         return RUNTIME.maxMemory() / MB;
     }
 
+    public static double limit()
+    {
+        return limit;
+    }
+
+    public static void setLimit(double fraction)
+    {
+        if (!(fraction > 0 && fraction <= 1))
+        {
+            throw new IllegalArgumentException("Memory limit must be a fraction of the max heap in (0, 1].");
+        }
+        limit = fraction;
+    }
+
+    /*
+        Whether more than the limit of the max heap is in use. Garbage counts as used until it is collected,
+        so a full collection is asked for before the answer is yes.
+
+        The visited tables are off-heap, in direct memory that is by default as large as the max heap, and
+        count against the same limit. A table that grows holds its old buffer and one twice as large at once,
+        so they count three times.
+    */
+    public static boolean overLimit()
+    {
+        if (3 * offHeap() > limit * max())
+        {
+            return true;
+        }
+        if (used() <= limit * max())
+        {
+            return false;
+        }
+        System.gc();
+        return used() > limit * max();
+    }
+
+    // Off-heap memory held by the visited tables of the searches (see VisitedTable).
+    public static double offHeap()
+    {
+        return VisitedTable.liveBytes() / MB;
+    }
+
     public static String stringRep()
     {
-        return String.format("[Used: %4.2f MB, Free: %4.2f MB, Alloc: %4.2f MB, MaxAlloc: %4.2f MB]",
+        return String.format("[Used: %4.2f MB, Free: %4.2f MB, Alloc: %4.2f MB, MaxAlloc: %4.2f MB, " +
+                             "Visited: %,d states in %4.2f MB off-heap]",
                              used(),
                              free(),
                              total(),
-                             max());
+                             max(),
+                             VisitedTable.liveEntries(),
+                             offHeap());
     }
 }
@@ -0,0 +1,21 @@
+package searchclient;
+
+/*
+    The node map of a best-first search as FrontierExternal sees it: SearchNodes, or one partition of
+    ParallelSearch. A state attached to an entry of the map can be written out as just its entry and g, and
+    rebuilt from them when it is read back.
+*/
+interface NodeMap
+{
+    // Whether the state is attached to an entry of this map.
+    boolean owns(State state);
+
+    // Whether the entry is open with g as its best g, that is a state pushed with that g is not stale.
+    boolean isOpen(int entry, int g);
+
+    // Same for a state looked up by its key, whether or not it is attached to this map.
+    boolean isOpen(State state);
+
+    // Rebuilds the state of an entry, attached to it.
+    State state(int entry, int g);
+}
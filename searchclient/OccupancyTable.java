@@ -0,0 +1,130 @@
+package searchclient;
+
+import java.util.Arrays;
+
+/*
+    Cell occupancy of one joint action, used to find conflicting agents without comparing every pair.
+
+    Every agent registers up to four cells: where it is, where it goes and, when it pushes or pulls, where its
+    box is and where the box goes. Each cell keeps one bit per agent for each of those four roles. Two agents
+    conflict when a cell one of them enters (its destination or its box destination) is a cell the other
+    one enters, stands on or moves its box from, which makes the relation symmetric.
+
+    Cells are only valid for the current generation. Starting a new joint action bumps the generation instead
+    of clearing the table, so the cost of a check is linear in the number of agents, not in the level size.
+*/
+class OccupancyTable
+{
+    private int generation;
+    private int[] stamps = new int[0];
+    private long[] positions = new long[0];
+    private long[] destinations = new long[0];
+    private long[] boxes = new long[0];
+    private long[] boxDestinations = new long[0];
+
+    private int[] agentPosition = new int[0];
+    private int[] agentDestination = new int[0];
+    private int[] agentBox = new int[0];
+    private int[] agentBoxDestination = new int[0];
+
+    // Starts a new joint action on a level with numCells cells. At most 64 agents are supported.
+    void reset(int numCells, int numAgents)
+    {
+        if (this.stamps.length < numCells)
+        {
+            this.stamps = new int[numCells];
+            this.positions = new long[numCells];
+            this.destinations = new long[numCells];
+            this.boxes = new long[numCells];
+            this.boxDestinations = new long[numCells];
+            this.generation = 0;
+        }
+        if (this.agentPosition.length < numAgents)
+        {
+            this.agentPosition = new int[numAgents];
+            this.agentDestination = new int[numAgents];
+            this.agentBox = new int[numAgents];
+            this.agentBoxDestination = new int[numAgents];
+        }
+        if (++this.generation == 0)
+        {
+            // Wrapped around, old stamps could be taken for current ones.
+            Arrays.fill(this.stamps, 0);
+            this.generation = 1;
+        }
+        Arrays.fill(this.agentPosition, 0, numAgents, -1);
+        Arrays.fill(this.agentDestination, 0, numAgents, -1);
+        Arrays.fill(this.agentBox, 0, numAgents, -1);
+        Arrays.fill(this.agentBoxDestination, 0, numAgents, -1);
+    }
+
+    /*
+        Registers the cells of an agent, box and boxDestination are -1 if it does not move a box.
+        A cell outside of the level (an action that is not applicable can point there) is passed as -1 too.
+    */
+    void add(int agent, int position, int destination, int box, int boxDestination)
+    {
+        long bit = 1L << agent;
+        this.agentPosition[agent] = position;
+        this.agentDestination[agent] = destination;
+        this.agentBox[agent] = box;
+        this.agentBoxDestination[agent] = boxDestination;
+        if (position >= 0)
+        {
+            this.positions[this.touch(position)] |= bit;
+        }
+        if (destination >= 0)
+        {
+            this.destinations[this.touch(destination)] |= bit;
+        }
+        if (box >= 0)
+        {
+            this.boxes[this.touch(box)] |= bit;
+        }
+        if (boxDestination >= 0)
+        {
+            this.boxDestinations[this.touch(boxDestination)] |= bit;
+        }
+    }
+
+    // Agents (as a bit mask) that conflict with the agent, among the agents added since the last reset.
+    long conflicts(int agent)
+    {
+        long mask = this.entering(this.agentDestination[agent]) | this.entered(this.agentPosition[agent])
+                | this.entering(this.agentBoxDestination[agent]) | this.entered(this.agentBox[agent]);
+        return mask & ~(1L << agent);
+    }
+
+    // Agents that touch a cell that is being entered.
+    private long entering(int cell)
+    {
+        if (cell < 0 || this.stamps[cell] != this.generation)
+        {
+            return 0;
+        }
+        return this.positions[cell] | this.destinations[cell] | this.boxes[cell] | this.boxDestinations[cell];
+    }
+
+    // Agents that enter a cell that is occupied at the start of the action.
+    private long entered(int cell)
+    {
+        if (cell < 0 || this.stamps[cell] != this.generation)
+        {
+            return 0;
+        }
+        return this.destinations[cell] | this.boxDestinations[cell];
+    }
+
+    private int touch(int cell)
+    {
+        if (this.stamps[cell] != this.generation)
+        {
+            this.stamps[cell] = this.generation;
+            this.positions[cell] = 0;
+            this.destinations[cell] = 0;
+            this.boxes[cell] = 0;
+            this.boxDestinations[cell] = 0;
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,522 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/*
+    Hash-distributed A* (HDA*): the best-first search of GraphSearch run by several worker threads at once.
+
+    Every state has one owner, chosen from the hash of its packed key (State.pack), and only the owner keeps
+    its node and pushes it on a frontier. So each worker has its own FrontierExternal and its own node map
+    with the same layout as SearchNodes, and none of them needs a lock. The frontiers share the budget of
+    the frontier of one sequential search (FrontierExternal.defaultBudget) and spill to disk like it. A worker expanding a state handles
+    the children it owns itself and sends the others, as the parent and the joint action, to the inbox of
+    their owner, which packs and builds them (State.packChild, State.child). The inboxes are lock-free
+    queues with many producers and one consumer.
+
+    A goal popped by any worker becomes the incumbent if its f is lower than the one of the incumbent, and
+    from then on the workers drop every state whose f is not lower. The search is over once no worker has
+    anything left to expand and no state is on its way to another worker. That is tracked by one counter of
+    busy workers plus states in flight: a state is counted before it is sent and uncounted only after its
+    owner took it in, and an idle worker counts itself busy again before it reads a state from its inbox. So
+    the counter can only drop to zero when all the work is done, and it can not rise again from there.
+
+    The parent of a node may live in another worker, the payload of an entry therefore has the owner of the
+    parent next to the parent entry: parent owner (int), parent entry (int), best g (int), open flag (byte)
+    and one action ordinal per agent (byte).
+
+    The search is handed over by GraphSearch.bestFirst once it has run for a while, and the workers go on
+    from where it is instead of starting over. Every node of its SearchNodes, open or closed, is copied to
+    its owner before the workers start, and the open ones are pushed there again. A copied node has SEED as
+    its parent owner and its entry in SearchNodes as its parent, which gives the rest of the plan.
+*/
+public class ParallelSearch
+{
+    private static final int PARENT_OWNER = 0;
+    private static final int PARENT = PARENT_OWNER + Integer.BYTES;
+    private static final int G = PARENT + Integer.BYTES;
+    private static final int OPEN = G + Integer.BYTES;
+    private static final int ACTIONS = OPEN + 1;
+    // Parent owner of the nodes copied from the search that was handed over.
+    private static final int SEED = -1;
+
+    // Spins of an idle worker before it starts to park between looks at its inbox.
+    private static final int IDLE_SPINS = 1000;
+    private static final long IDLE_PARK_NANOS = 20_000;
+
+    private static int workers = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool;
+
+    private final Heuristic heuristic;
+    private final Predicate<State> goal;
+    private final GraphSearch.Run run;
+    private final int numAgents;
+    // Gives the level and the constraints to the states rebuilt from their entry.
+    private final State template;
+    // Nodes of the search that was handed over, see extractPlan.
+    private final SearchNodes nodes;
+    private final Partition[] partitions;
+    // Busy workers plus states sent to a worker that has not taken them in yet.
+    private final AtomicLong pending;
+
+    private volatile boolean stop;
+    // Set by the worker that found memory over the limit (Memory.overLimit), see search.
+    private volatile boolean outOfMemory;
+    private Throwable failure;
+    private volatile int incumbentF = Integer.MAX_VALUE;
+    private int incumbentOwner = -1;
+    private int incumbentEntry = -1;
+    private State incumbent;
+
+    // Number of threads a search may use, 1 keeps every search on the calling thread.
+    public static int workers()
+    {
+        return workers;
+    }
+
+    public static synchronized void setWorkers(int n)
+    {
+        if (n < 1)
+        {
+            throw new IllegalArgumentException("At least one worker is needed.");
+        }
+        workers = n;
+        if (pool != null)
+        {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /*
+        Searches from root for a state that satisfies goal, in order of the heuristic, with workers() threads.
+        root is attached to the SearchNodes of the best-first search that is handed over, and the workers go
+        on from its open nodes. Returns the goal state with a plan from the start of the level (extractPlan),
+        or null if there is none. Throws DeadlineExceeded when it goes on past the deadline of a stoppable
+        run, all workers stop then.
+
+        As in GraphSearch.bestFirst, when Memory.overLimit() all workers stop and the search is started over by
+        IDAstar.
+    */
+    static State search(State root, Heuristic heuristic, Predicate<State> goal, GraphSearch.Run run)
+    {
+        ParallelSearch search = new ParallelSearch(root, heuristic, goal, run, workers());
+        System.err.format("Continuing the search on %d workers from %,d nodes.\n", workers(), root.nodes.size());
+        State found = search.run();
+        if (!search.outOfMemory)
+        {
+            return found;
+        }
+        System.err.println("Memory is running low, continuing with IDA*: " + Memory.stringRep());
+        // Let the partitions be collected before IDA* starts.
+        search = null;
+        return IDAstar.search(root, heuristic, goal, run);
+    }
+
+    private ParallelSearch(State root, Heuristic heuristic, Predicate<State> goal, GraphSearch.Run run, int numWorkers)
+    {
+        this.heuristic = heuristic;
+        this.goal = goal;
+        this.run = run;
+        this.numAgents = root.agentRows.length;
+        this.template = root;
+        this.nodes = root.nodes;
+        this.partitions = new Partition[numWorkers];
+        for (int i = 0; i < numWorkers; i++)
+        {
+            this.partitions[i] = new Partition(i, root.packedLength(), FrontierExternal.defaultBudget() / numWorkers);
+        }
+        this.pending = new AtomicLong(numWorkers);
+
+        // The nodes of the search are taken in by their owners before any worker starts.
+        long[] key = new long[root.packedLength()];
+        for (int entry = 0; entry < this.nodes.size(); entry++)
+        {
+            this.seed(entry, key);
+        }
+    }
+
+    // Copies a node of the search that was handed over to its owner, and pushes it there if it is open.
+    private void seed(int entry, long[] key)
+    {
+        int g = this.nodes.g(entry);
+        this.nodes.key(entry, key);
+        Partition owner = this.partitions[this.owner(key)];
+        System.arraycopy(key, 0, owner.scratch, 0, key.length);
+        int seeded = owner.record(g, SEED, entry, null);
+        if (!this.nodes.isOpen(entry, g))
+        {
+            owner.table.putByte(seeded, OPEN, (byte) 0);
+            return;
+        }
+        State state = this.nodes.state(entry, g);
+        state.attach(null, seeded);
+        owner.frontier.add(state);
+    }
+
+    private State run()
+    {
+        ExecutorService executor = executor(this.partitions.length);
+        ArrayList<Future<?>> futures = new ArrayList<>(this.partitions.length - 1);
+        for (int i = 1; i < this.partitions.length; i++)
+        {
+            Partition partition = this.partitions[i];
+            futures.add(executor.submit(() -> this.work(partition)));
+        }
+        this.work(this.partitions[0]);
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the search workers.", e);
+            }
+            catch (ExecutionException e)
+            {
+                this.fail(e.getCause());
+            }
+        }
+        // What the workers wrote to disk is not needed any more.
+        for (Partition partition : this.partitions)
+        {
+            partition.frontier.discard();
+        }
+
+        if (this.failure instanceof Error error)
+        {
+            throw error;
+        }
+        if (this.failure instanceof GraphSearch.DeadlineExceeded deadline)
+        {
+            throw deadline;
+        }
+        if (this.failure != null)
+        {
+            throw new IllegalStateException("A search worker failed.", this.failure);
+        }
+        if (this.incumbent == null)
+        {
+            return null;
+        }
+        // The node maps of the workers are dropped, the goal gets one of its own that only knows its plan.
+        new SearchNodes(this.incumbent, this.extractPlan(this.incumbentOwner, this.incumbentEntry));
+        return this.incumbent;
+    }
+
+    private void work(Partition self)
+    {
+        try
+        {
+            ArrayList<Action[]> successors = new ArrayList<>(64);
+            int expansions = 0;
+            while (!this.stop)
+            {
+                this.receive(self);
+                State state = this.next(self);
+                if (state == null)
+                {
+                    if (!this.idle(self))
+                    {
+                        return;
+                    }
+                    continue;
+                }
+
+                int f = this.heuristic.f(state);
+                if (this.goal.test(state))
+                {
+                    this.offerIncumbent(f, self.index, state.nodeIndex, state);
+                    continue;
+                }
+                // Past the deadline the worker fails, which stops the others too.
+                if ((++expansions & GraphSearch.DEADLINE_CHECK_MASK) == 0)
+                {
+                    this.run.checkDeadline();
+                }
+                if ((expansions & GraphSearch.MEMORY_CHECK_MASK) == 0 && Memory.overLimit())
+                {
+                    this.outOfMemory = true;
+                    this.stop = true;
+                    return;
+                }
+
+                state.getExpandedActions(successors);
+                for (Action[] jointAction : successors)
+                {
+                    state.packChild(jointAction, self.scratch);
+                    int owner = this.owner(self.scratch);
+                    if (owner == self.index)
+                    {
+                        self.offer(state, jointAction, self.index);
+                    }
+                    else
+                    {
+                        this.pending.incrementAndGet();
+                        this.partitions[owner].inbox.add(new Message(state, self.index, jointAction));
+                    }
+                }
+            }
+        }
+        catch (Throwable e)
+        {
+            this.fail(e);
+        }
+    }
+
+    // Takes in the children sent by the other workers.
+    private void receive(Partition self)
+    {
+        Message message;
+        while ((message = self.inbox.poll()) != null)
+        {
+            message.parent.packChild(message.jointAction, self.scratch);
+            self.offer(message.parent, message.jointAction, message.parentOwner);
+            this.pending.decrementAndGet();
+        }
+    }
+
+    // Next state of the partition that is open, not stale and can still beat the incumbent, or null.
+    private State next(Partition self)
+    {
+        State state;
+        while ((state = self.frontier.pop()) != null)
+        {
+            if (this.heuristic.f(state) < this.incumbentF && self.close(state))
+            {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    // Waits for more work. Returns false once the search is over.
+    private boolean idle(Partition self)
+    {
+        this.pending.decrementAndGet();
+        for (int spins = 0; ; spins++)
+        {
+            if (!self.inbox.isEmpty())
+            {
+                this.pending.incrementAndGet();
+                return true;
+            }
+            if (this.pending.get() == 0 || this.stop)
+            {
+                return false;
+            }
+            if (spins < IDLE_SPINS)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private synchronized void offerIncumbent(int f, int owner, int entry, State state)
+    {
+        if (f < this.incumbentF)
+        {
+            this.incumbentF = f;
+            this.incumbentOwner = owner;
+            this.incumbentEntry = entry;
+            this.incumbent = state;
+        }
+    }
+
+    private synchronized void fail(Throwable e)
+    {
+        if (this.failure == null)
+        {
+            this.failure = e;
+        }
+        this.stop = true;
+    }
+
+    // Owner of the packed key. The high bits of the hash are used, the node maps index on the low ones.
+    private int owner(long[] key)
+    {
+        return (int) (((VisitedTable.hash(key) & 0xFFFFFFFFL) * this.partitions.length) >>> 32);
+    }
+
+    // Only called once the workers are done, so the node maps are no longer written.
+    private Action[][] extractPlan(int owner, int entry)
+    {
+        Action[][] plan = new Action[this.partitions[owner].table.getInt(entry, G)][];
+        int pos = plan.length - 1;
+        while (this.partitions[owner].table.getInt(entry, PARENT_OWNER) != SEED)
+        {
+            VisitedTable table = this.partitions[owner].table;
+            Action[] jointAction = new Action[this.numAgents];
+            for (int agent = 0; agent < this.numAgents; agent++)
+            {
+                jointAction[agent] = Action.VALUES[table.getByte(entry, ACTIONS + agent)];
+            }
+            plan[pos--] = jointAction;
+            owner = table.getInt(entry, PARENT_OWNER);
+            entry = table.getInt(entry, PARENT);
+        }
+        Action[][] prefix = this.nodes.extractPlan(this.partitions[owner].table.getInt(entry, PARENT));
+        System.arraycopy(prefix, 0, plan, 0, prefix.length);
+        return plan;
+    }
+
+    // The calling thread is a worker too, the pool runs the others.
+    private static synchronized ExecutorService executor(int numWorkers)
+    {
+        if (pool == null)
+        {
+            pool = Executors.newFixedThreadPool(Math.max(1, numWorkers - 1), runnable -> {
+                Thread thread = new Thread(runnable, "search-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    // A child to be taken in by its owner.
+    private static final class Message
+    {
+        final State parent;
+        final int parentOwner;
+        final Action[] jointAction;
+
+        Message(State parent, int parentOwner, Action[] jointAction)
+        {
+            this.parent = parent;
+            this.parentOwner = parentOwner;
+            this.jointAction = jointAction;
+        }
+    }
+
+    /*
+        The part of the search owned by one worker. Only the inbox is touched by other threads.
+
+        It is the node map of the frontier of the worker. States on that frontier are always owned by the
+        partition, so every state attached to an entry is attached to one of its own.
+    */
+    private final class Partition
+            implements NodeMap
+    {
+        final int index;
+        final long[] scratch;
+        // For isOpen, which the frontier may call while the scratch buffer holds a child.
+        final long[] probe;
+        final VisitedTable table;
+        final FrontierExternal frontier;
+        final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+
+        Partition(int index, int keyLength, int budget)
+        {
+            this.index = index;
+            this.scratch = new long[keyLength];
+            this.probe = new long[keyLength];
+            this.table = new VisitedTable(keyLength, ACTIONS + ParallelSearch.this.numAgents);
+            this.frontier = new FrontierExternal(ParallelSearch.this.heuristic, this, budget);
+        }
+
+        @Override
+        public boolean owns(State state)
+        {
+            return state.nodes == null && state.nodeIndex >= 0;
+        }
+
+        @Override
+        public boolean isOpen(int entry, int g)
+        {
+            return this.table.getByte(entry, OPEN) != 0 && this.table.getInt(entry, G) == g;
+        }
+
+        // Whether the node of a state is open in this partition with the g of the state.
+        @Override
+        public boolean isOpen(State state)
+        {
+            state.pack(this.probe);
+            int entry = this.table.lookup(this.probe);
+            return entry >= 0 && this.isOpen(entry, state.g);
+        }
+
+        // Same as SearchNodes.state, a copied node has no joint action.
+        @Override
+        public State state(int entry, int g)
+        {
+            Action[] jointAction = null;
+            if (this.table.getInt(entry, PARENT_OWNER) != SEED)
+            {
+                jointAction = new Action[ParallelSearch.this.numAgents];
+                for (int agent = 0; agent < ParallelSearch.this.numAgents; agent++)
+                {
+                    jointAction[agent] = Action.VALUES[this.table.getByte(entry, ACTIONS + agent)];
+                }
+            }
+            long[] key = new long[this.scratch.length];
+            this.table.key(entry, key);
+            State state = new State(ParallelSearch.this.template, key, g, jointAction);
+            state.attach(null, entry);
+            return state;
+        }
+
+        // The child of parent by the joint action, packed in the scratch buffer. Pushed if new or cheaper.
+        void offer(State parent, Action[] jointAction, int parentOwner)
+        {
+            int entry = this.record(parent.g + 1, parentOwner, parent.nodeIndex, jointAction);
+            if (entry >= 0)
+            {
+                State state = parent.child(jointAction);
+                state.attach(null, entry);
+                this.frontier.add(state);
+            }
+        }
+
+        boolean close(State state)
+        {
+            int entry = state.nodeIndex;
+            if (!this.isOpen(entry, state.g))
+            {
+                return false;
+            }
+            this.table.putByte(entry, OPEN, (byte) 0);
+            return true;
+        }
+
+        // Key is in the scratch buffer, see SearchNodes.record.
+        int record(int g, int parentOwner, int parentEntry, Action[] jointAction)
+        {
+            int entry = this.table.insert(this.scratch);
+            if (entry < 0)
+            {
+                entry = -(entry + 1);
+                if (g >= this.table.getInt(entry, G))
+                {
+                    return -1;
+                }
+            }
+            this.table.putInt(entry, PARENT_OWNER, parentOwner);
+            this.table.putInt(entry, PARENT, parentEntry);
+            this.table.putInt(entry, G, g);
+            this.table.putByte(entry, OPEN, (byte) 1);
+            if (jointAction != null)
+            {
+                for (int agent = 0; agent < ParallelSearch.this.numAgents; agent++)
+                {
+                    this.table.putByte(entry, ACTIONS + agent, (byte) jointAction[agent].ordinal());
+                }
+            }
+            return entry;
+        }
+    }
+}
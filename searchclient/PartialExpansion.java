@@ -0,0 +1,127 @@
+package searchclient;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/*
+    Enhanced partial expansion A* (EPEA*) for joint states of several agents.
+
+    A joint state has up to 5^n children for n agents, and A* pushes all of them although most have an f
+    above the one of the solution and are never popped. Partial expansion only generates the children whose
+    f is the f the node was popped with, and pushes the node again with the next f one of its children has.
+
+    The children are picked without building them. The h of a joint state is the highest part of one of its
+    agents (HeuristicJoint.agentH), which only depends on the cell the agent moves to. So for a target f the
+    parts of every action of every agent are worked out first, and the operator selection of the state
+    (State.getSelectedActions) only combines the actions that keep every part within the target and bring at
+    least one agent to it. The node is popped once per distinct f of its children instead of being the
+    parent of them all at once.
+
+    The nodes live in SearchNodes as in GraphSearch.bestFirst. A node is closed the first time it is popped.
+    It can still be pushed again after that for its other children, and those pushes are stale once the
+    node has been reached on a cheaper path.
+*/
+public class PartialExpansion
+{
+    private final HeuristicJoint heuristic;
+    private final Predicate<State> goal;
+    // Part of h of each agent after each of its actions, see fillValues.
+    private final int[][] values;
+
+    /*
+        Searches from root for a state that satisfies goal, in order of the heuristic. Returns the goal state
+        with a plan from the start of the level (extractPlan), or null if there is none.
+    */
+    public static State search(State root, HeuristicJoint heuristic, Predicate<State> goal)
+    {
+        return new PartialExpansion(root, heuristic, goal).run(root);
+    }
+
+    private PartialExpansion(State root, HeuristicJoint heuristic, Predicate<State> goal)
+    {
+        this.heuristic = heuristic;
+        this.goal = goal;
+        this.values = new int[root.agentRows.length][Action.VALUES.length];
+    }
+
+    private State run(State root)
+    {
+        SearchNodes nodes = new SearchNodes(root);
+        // Lowest f first, the deepest node among equals.
+        PriorityQueue<Entry> open = new PriorityQueue<>((a, b) -> a.f != b.f ? Integer.compare(a.f, b.f)
+                                                                              : Integer.compare(b.state.g, a.state.g));
+        open.add(new Entry(root, this.heuristic.f(root)));
+        ArrayList<Action[]> successors = new ArrayList<>(64);
+        while (!open.isEmpty())
+        {
+            Entry entry = open.poll();
+            State state = entry.state;
+            if (entry.f == this.heuristic.f(state))
+            {
+                // First time popped.
+                if (!nodes.close(state))
+                {
+                    continue;
+                }
+                if (this.goal.test(state))
+                {
+                    return state;
+                }
+            }
+            else if (!nodes.isBest(state.nodeIndex, state.g))
+            {
+                continue;
+            }
+
+            // The children with f equal to the one of the entry have h one lower, each step costs one.
+            this.fillValues(state);
+            int next = state.getSelectedActions(successors, this.values, entry.f - state.g - 1);
+            for (Action[] jointAction : successors)
+            {
+                int index = nodes.offerChild(state, jointAction);
+                if (index >= 0)
+                {
+                    State child = state.child(jointAction);
+                    child.attach(nodes, index);
+                    open.add(new Entry(child, entry.f));
+                }
+            }
+            if (next != Integer.MAX_VALUE)
+            {
+                entry.f = state.g + 1 + next;
+                open.add(entry);
+            }
+        }
+        return null;
+    }
+
+    // The part of h of every agent after each action the walls allow it.
+    private void fillValues(State state)
+    {
+        for (int agent = 0; agent < this.values.length; agent++)
+        {
+            int row = state.agentRows[agent];
+            int col = state.agentCols[agent];
+            for (int mask = state.level.actionMask(row, col); mask != 0; mask &= mask - 1)
+            {
+                Action action = Action.VALUES[Integer.numberOfTrailingZeros(mask)];
+                this.values[agent][action.ordinal()] = this.heuristic.agentH(agent, row + action.agentRowDelta,
+                                                                             col + action.agentColDelta);
+            }
+        }
+    }
+
+    // A node on the open list with the f of the children it is to generate next.
+    private static class Entry
+    {
+        final State state;
+        int f;
+
+        Entry(State state, int f)
+        {
+            this.state = state;
+            this.f = f;
+        }
+    }
+}
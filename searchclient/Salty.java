@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Locale;
@@ -118,9 +119,10 @@ public class Salty
         return new State(agentRows, agentCols, agentColors, walls, boxes, boxColors, goals);
     }
 
-    public static Action[][] search(State initialState, Frontier frontier)
+    // The strategy only names the search in the log, the plan is always found by GraphSearch.advancedSearch.
+    public static Action[][] search(State initialState, String strategy)
     {
-        System.err.format("Starting %s.\n", frontier.getName());
+        System.err.format("Starting %s.\n", strategy);
 
         return GraphSearch.advancedSearch(initialState);
     }
@@ -128,6 +130,8 @@ public class Salty
     public static void main(String[] args)
     throws IOException
     {
+        long startTime = System.nanoTime();
+
         // Use stderr to print to the console.
         System.err.println("Salty initializing. I am sending this using the error output stream.");
 
@@ -141,20 +145,67 @@ public class Salty
         BufferedReader serverMessages = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
         State initialState = Salty.parseLevel(serverMessages);
 
+        // Options, each followed by its value. An option that can not be parsed keeps its default.
+        long deadline = 0;
+        for (int i = 0; i + 1 < args.length; i++)
+        {
+            String option = args[i].toLowerCase(Locale.ROOT);
+            String value = args[i + 1];
+            try
+            {
+                switch (option)
+                {
+                    // Number of threads of the big searches (see ParallelSearch), all the cores by default.
+                    case "-threads":
+                        ParallelSearch.setWorkers(Integer.parseUnsignedInt(value));
+                        break;
+                    // Fraction of the max heap after which a search continues in bounded memory (see GraphSearch.bestFirst).
+                    case "-memlimit":
+                        Memory.setLimit(Double.parseDouble(value));
+                        break;
+                    // Megabytes the distances between cells may take, above that they are computed on demand (see DistanceOracle).
+                    case "-distcache":
+                        DistanceOracle.setBudget((long) (Double.parseDouble(value) * 1024 * 1024));
+                        break;
+                    // Directory of the distances kept between runs (see DistanceCache), "none" to keep nothing.
+                    case "-cache":
+                        DistanceCache.setDirectory(value.equalsIgnoreCase("none") ? null : Path.of(value));
+                        break;
+                    // Time limit of the server in seconds. With it the plan is improved until a tenth of the limit is left.
+                    case "-time":
+                        double seconds = Double.parseDouble(value);
+                        if (!(seconds > 0))
+                        {
+                            throw new NumberFormatException();
+                        }
+                        deadline = startTime + (long) (seconds * 0.9 * 1e9);
+                        break;
+                    default:
+                        continue;
+                }
+                i++;
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.err.format("Couldn't parse argument %s to %s, using default.\n", value, args[i]);
+            }
+        }
+
         // Select search strategy.
-        Frontier frontier;
+        String strategy;
+        boolean joint = false;
         if (args.length > 0)
         {
             switch (args[0].toLowerCase(Locale.ROOT))
             {
                 case "-bfs":
-                    frontier = new FrontierBFS();
+                    strategy = "breadth-first search";
                     break;
                 case "-dfs":
-                    frontier = new FrontierDFS();
+                    strategy = "depth-first search";
                     break;
                 case "-astar":
-                    frontier = new FrontierBestFirst(new HeuristicAStar(initialState));
+                    strategy = "best-first search using A* evaluation";
                     break;
                 case "-wastar":
                     int w = 5;
@@ -169,29 +220,45 @@ public class Salty
                             System.err.println("Couldn't parse weight argument to -wastar as integer, using default.");
                         }
                     }
-                    frontier = new FrontierBestFirst(new HeuristicWeightedAStar(initialState, w));
+                    strategy = String.format("best-first search using WA*(%d) evaluation", w);
                     break;
                 case "-greedy":
-                    frontier = new FrontierBestFirst(new HeuristicGreedy(initialState));
+                    strategy = "best-first search using greedy evaluation";
+                    break;
+                case "-joint":
+                    strategy = "joint search";
+                    joint = true;
                     break;
                 default:
-                    frontier = new FrontierBFS();
-                    System.err.println("Defaulting to BFS search. Use arguments -bfs, -dfs, -astar, -wastar, or " +
-                                       "-greedy to set the search strategy.");
+                    strategy = "breadth-first search";
+                    System.err.println("Defaulting to BFS search. Use arguments -bfs, -dfs, -astar, -wastar, -greedy " +
+                                       "or -joint to set the search strategy.");
             }
         }
         else
         {
-            frontier = new FrontierBFS();
-            System.err.println("Defaulting to BFS search. Use arguments -bfs, -dfs, -astar, -wastar, or -greedy to " +
-                               "set the search strategy.");
+            strategy = "breadth-first search";
+            System.err.println("Defaulting to BFS search. Use arguments -bfs, -dfs, -astar, -wastar, -greedy or -joint " +
+                               "to set the search strategy.");
         }
 
         // Search for a plan.
         Action[][] plan;
         try
         {
-            plan = Salty.search(initialState, frontier);
+            if (joint)
+            {
+                plan = GraphSearch.jointSearch(initialState);
+            }
+            else if (deadline != 0)
+            {
+                System.err.format("Starting anytime search, %.1f s until the deadline.\n", (deadline - System.nanoTime()) / 1e9);
+                plan = GraphSearch.anytimeSearch(initialState, deadline);
+            }
+            else
+            {
+                plan = Salty.search(initialState, strategy);
+            }
         }
         catch (OutOfMemoryError ex)
         {
@@ -0,0 +1,215 @@
+package searchclient;
+
+/*
+    The nodes of one best-first search, open and closed, in a single map that does not keep State objects alive.
+
+    Every generated state gets an entry keyed by its packed key (State.pack: agent cells, box cells and the
+    time step for single-agent states, 16 bits each). The entry holds the best g found so far, whether the
+    node is open or closed, the entry of its parent on that best path and the joint action from the parent.
+    Entries are appended, so an entry index never changes and a State only needs to remember its own
+    (State.attach). The plan of a goal state is rebuilt by walking the parent entries back to the root.
+
+    The frontier holds the open States. When a cheaper path to an open or closed node is found, the entry is
+    updated and reopened and a new State is pushed. The State that was pushed before is stale from then on,
+    and close() rejects it when it is popped, which stands in for a decrease-key on the frontier. For
+    single-agent states g is part of the key, so there the map only removes duplicates.
+
+    The entries live off-heap in a VisitedTable. The payload of an entry is the parent entry (int), the
+    best g (int), the open flag (byte) and one action ordinal per agent (byte).
+*/
+public final class SearchNodes
+        implements NodeMap
+{
+    private static final int PARENT = 0;
+    private static final int G = PARENT + Integer.BYTES;
+    private static final int OPEN = G + Integer.BYTES;
+    private static final int ACTIONS = OPEN + 1;
+
+    private final int numAgents;
+    // Plan that leads to the root of this search, it may have been found by an earlier search.
+    private final Action[][] prefix;
+    private final int rootG;
+    private final long[] scratch;
+    private final VisitedTable table;
+    // Gives the level and the constraints to the states rebuilt from their entry.
+    private final State template;
+
+    // The root becomes the first open node. It forgets the search it came from, its plan is kept in the prefix.
+    public SearchNodes(State root)
+    {
+        this(root, root.extractPlan());
+    }
+
+    // Same, for a root whose plan is known already (see ParallelSearch).
+    SearchNodes(State root, Action[][] prefix)
+    {
+        this.numAgents = root.agentRows.length;
+        this.prefix = prefix;
+        this.rootG = root.g;
+        this.template = root;
+        this.scratch = new long[root.packedLength()];
+        this.table = new VisitedTable(this.scratch.length, ACTIONS + this.numAgents);
+
+        root.pack(this.scratch);
+        int entry = this.table.insert(this.scratch);
+        this.table.putInt(entry, PARENT, -1);
+        this.table.putInt(entry, G, root.g);
+        this.table.putByte(entry, OPEN, (byte) 1);
+        root.attach(this, entry);
+    }
+
+    /*
+        Records the child of parent reached by the joint action (see State.getExpandedActions), without building it.
+        Returns the entry for the child if it is new or cheaper than before, in which case the caller builds
+        it, attaches it to that entry and pushes it. Returns -1 if the child is not worth pushing.
+    */
+    public int offerChild(State parent, Action[] jointAction)
+    {
+        parent.packChild(jointAction, this.scratch);
+        return this.record(parent.g + 1, parent.nodeIndex, jointAction);
+    }
+
+    // Same as offerChild for a child that has been built already. It is attached to its entry when accepted.
+    public boolean offer(State state, int parentEntry)
+    {
+        state.pack(this.scratch);
+        int entry = this.record(state.g, parentEntry, state.jointAction);
+        if (entry < 0)
+        {
+            return false;
+        }
+        state.attach(this, entry);
+        return true;
+    }
+
+    // Closes the node of a state taken from the frontier. Returns false if the state is stale or already closed.
+    public boolean close(State state)
+    {
+        int entry = state.nodeIndex;
+        if (this.table.getByte(entry, OPEN) == 0 || this.table.getInt(entry, G) != state.g)
+        {
+            return false;
+        }
+        this.table.putByte(entry, OPEN, (byte) 0);
+        return true;
+    }
+
+    @Override
+    public boolean owns(State state)
+    {
+        return state.nodes == this && state.nodeIndex >= 0;
+    }
+
+    // Whether the entry is open with g as its best g, that is a state pushed with that g is not stale.
+    @Override
+    public boolean isOpen(int entry, int g)
+    {
+        return this.table.getByte(entry, OPEN) != 0 && this.table.getInt(entry, G) == g;
+    }
+
+    // Same for a state looked up by its key, whether or not it is attached to this search.
+    @Override
+    public boolean isOpen(State state)
+    {
+        state.pack(this.scratch);
+        int entry = this.table.lookup(this.scratch);
+        return entry >= 0 && this.isOpen(entry, state.g);
+    }
+
+    // Whether g is still the best g of the entry, open or closed.
+    public boolean isBest(int entry, int g)
+    {
+        return this.table.getInt(entry, G) == g;
+    }
+
+    // Best g of the entry.
+    public int g(int entry)
+    {
+        return this.table.getInt(entry, G);
+    }
+
+    // Copies the packed key of the entry into key.
+    public void key(int entry, long[] key)
+    {
+        this.table.key(entry, key);
+    }
+
+    // Rebuilds the state of an entry, attached to it, for frontiers that do not keep their State objects.
+    @Override
+    public State state(int entry, int g)
+    {
+        Action[] jointAction = null;
+        if (this.table.getInt(entry, PARENT) >= 0)
+        {
+            jointAction = new Action[this.numAgents];
+            for (int agent = 0; agent < this.numAgents; agent++)
+            {
+                jointAction[agent] = Action.VALUES[this.table.getByte(entry, ACTIONS + agent)];
+            }
+        }
+        long[] key = new long[this.scratch.length];
+        this.table.key(entry, key);
+        State state = new State(this.template, key, g, jointAction);
+        state.attach(this, entry);
+        return state;
+    }
+
+    public boolean contains(State state)
+    {
+        state.pack(this.scratch);
+        return this.table.lookup(this.scratch) >= 0;
+    }
+
+    public int size()
+    {
+        return this.table.size();
+    }
+
+    // Rebuilds the plan of a state of this search along the best path found to it.
+    public Action[][] extractPlan(State state)
+    {
+        return this.extractPlan(state.nodeIndex);
+    }
+
+    // Same for an entry, entries are 0 to size() - 1.
+    public Action[][] extractPlan(int entry)
+    {
+        Action[][] plan = new Action[this.table.getInt(entry, G)][];
+        int pos = plan.length - 1;
+        int parent;
+        while ((parent = this.table.getInt(entry, PARENT)) >= 0)
+        {
+            Action[] jointAction = new Action[this.numAgents];
+            for (int agent = 0; agent < this.numAgents; agent++)
+            {
+                jointAction[agent] = Action.VALUES[this.table.getByte(entry, ACTIONS + agent)];
+            }
+            plan[pos--] = jointAction;
+            entry = parent;
+        }
+        System.arraycopy(this.prefix, 0, plan, 0, this.rootG);
+        return plan;
+    }
+
+    // Key is in the scratch buffer.
+    private int record(int g, int parentEntry, Action[] jointAction)
+    {
+        int entry = this.table.insert(this.scratch);
+        if (entry < 0)
+        {
+            entry = -(entry + 1);
+            if (g >= this.table.getInt(entry, G))
+            {
+                return -1;
+            }
+        }
+        this.table.putInt(entry, PARENT, parentEntry);
+        this.table.putInt(entry, G, g);
+        this.table.putByte(entry, OPEN, (byte) 1);
+        for (int agent = 0; agent < this.numAgents; agent++)
+        {
+            this.table.putByte(entry, ACTIONS + agent, (byte) jointAction[agent].ordinal());
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,39 @@
+package searchclient;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+final class ShortDistanceTable
+        extends DistanceTable
+{
+    static final int NONE = 0xFFFF;
+
+    private final short[] distances;
+
+    ShortDistanceTable(int numCols, int[] ids, int numFree, short[] distances)
+    {
+        super(numCols, ids, numFree);
+        this.distances = distances;
+    }
+
+    @Override
+    int entry(int a, int b)
+    {
+        int distance = this.distances[a * this.numFree + b] & 0xFFFF;
+        return distance == NONE ? UNREACHABLE : distance;
+    }
+
+    // The entries as they are stored by DistanceCache, little endian.
+    ByteBuffer entries()
+    {
+        ByteBuffer entries = ByteBuffer.allocate(Short.BYTES * this.distances.length).order(ByteOrder.LITTLE_ENDIAN);
+        entries.asShortBuffer().put(this.distances);
+        return entries;
+    }
+
+    @Override
+    public long size()
+    {
+        return 2L * this.distances.length;
+    }
+}
@@ -3,48 +3,68 @@ package searchclient;
 import java.util.*;
 import java.awt.Point;
 
-public class State
+public final class State
 {
     private static final Random RNG = new Random(1);
+    // Scratch buffers of the successor generator, one set per thread so they can be reused between calls.
+    private static final ThreadLocal<Expansion> EXPANSION = ThreadLocal.withInitial(Expansion::new);
+    // One shared joint action per action for single-agent states, children point to these instead of a copy.
+    private static final Action[][] SINGLE_ACTIONS = new Action[Action.VALUES.length][];
+    static
+    {
+        for (Action action : Action.VALUES)
+        {
+            SINGLE_ACTIONS[action.ordinal()] = new Action[]{action};
+        }
+    }
 
     /*
-        The agent rows, columns, and colors are indexed by the agent number.
+        The agent rows and columns are indexed by the agent number.
         For example, this.agentRows[0] is the row location of agent '0'.
     */
     public int[] agentRows;
     public int[] agentCols;
-    public Color[] agentColors;
 
     /*
-        The walls, boxes, and goals arrays are indexed from the top-left of the level, row-major order (row, col).
+        The boxes array is indexed from the top-left of the level, row-major order (row, col).
                Col 0  Col 1  Col 2  Col 3
         Row 0: (0,0)  (0,1)  (0,2)  (0,3)  ...
         Row 1: (1,0)  (1,1)  (1,2)  (1,3)  ...
         Row 2: (2,0)  (2,1)  (2,2)  (2,3)  ...
         ...
 
-        For example, this.walls[2] is an array of booleans for the third row.
-        this.walls[row][col] is true if there's a wall at (row, col).
-
-        this.boxes and this.char are two-dimensional arrays of chars.
+        this.boxes is a two-dimensional array of chars.
         this.boxes[1][2]='A' means there is an A box at (1,2).
         If there is no box at (1,2), we have this.boxes[1][2]=0 (null character).
-        Simiarly for goals.
 
+        Walls, goals and colors do not change between a state and its children, so they live in a
+        StaticLevel shared by the whole search. See StaticLevel for the layout of those arrays.
     */
-    public boolean[][] walls;
-    public char[][] boxes,goals;
+    public char[][] boxes;
+    public StaticLevel level;
     /*
         The box colors are indexed alphabetically. So this.boxColors[0] is the color of A boxes,
         this.boxColor[1] is the color of B boxes, etc.
     */
     public static Color[] boxColors;
 
-    public final State parent;
-    private int hash = 0;
+    public State parent;
+    /*
+        States generated by a search with SearchNodes do not keep their parent alive. Instead they point
+        to their own entry there (nodeIndex), which knows the entry of the parent.
+    */
+    public SearchNodes nodes;
+    public int nodeIndex = -1;
+    // Zobrist fingerprint of the agents and boxes, see StaticLevel.
+    private long zobrist;
     public final Action[] jointAction;
     public final int g;
-    public HashMap<Point,Point> BoxPoint,PointBox;
+    /*
+        Current cell of every box, indexed by box id (see StaticLevel for the registry).
+        A box that has been turned into a wall by setWall has cell -1.
+        Children share the array with their parent until one of their actions moves a box.
+    */
+    public int[] boxCells;
     public Manage manage;
 
 
@@ -56,25 +76,22 @@ public class State
     {
         this.agentRows = agentRows;
         this.agentCols = agentCols;
-        this.agentColors = agentColors;
-        this.walls = walls;
         this.boxes = boxes;
         State.boxColors = boxColors;
-        this.goals = goals;
         this.parent = null;
         this.jointAction = null;
         this.g = 0;
-        this.fillBoxesThatCanNotBeMoved();
-        //Initiate supportive structures to store boxes. It is needed by the heristic.
-        HashMap<Character,HashSet<Point>> bxs = getBoxesCoord();
-        BoxPoint = new HashMap<>();
-        PointBox = new HashMap<>();
-        for(Character boxType: bxs.keySet()){
-            for(Point box: bxs.get(boxType)){
-                BoxPoint.put(box,box);
-                PointBox.put(box,box);
-                //System.err.println("Box " + box.toString() + " is in " + BoxPoint.get(box).toString());
-            }
+        this.fillBoxesThatCanNotBeMoved(walls, agentColors);
+        //Initiate the box registry once the boxes that can not be moved are gone. It is needed by the heristic.
+        this.level = new StaticLevel(walls, goals, agentColors, boxColors, boxes);
+        this.boxCells = Arrays.copyOf(this.level.boxHomes, this.level.boxHomes.length);
+        for (int agent = 0; agent < this.agentRows.length; agent++)
+        {
+            this.zobrist ^= this.level.agentKey(agent, this.level.cell(this.agentRows[agent], this.agentCols[agent]));
+        }
+        for (int id = 0; id < this.boxCells.length; id++)
+        {
+            this.zobrist ^= this.level.boxKey(this.boxCells[id], this.level.boxLetters[id]);
         }
         getNumOfBoxesWithSameColor();
         this.manage = new Manage();
@@ -83,37 +100,23 @@ public class State
 
     public State(State parent, Action[] jointAction)
     {
-        // Copy parent
+        this(parent, Arrays.copyOf(jointAction, jointAction.length), true);
+    }
+
+    // The joint action is not copied, it must not be modified afterwards. The flag only tells the constructors apart.
+    private State(State parent, Action[] jointAction, boolean shared)
+    {
+        // Copy parent. Box rows and the box cells are only copied when an action moves a box.
         this.agentRows = Arrays.copyOf(parent.agentRows, parent.agentRows.length);
         this.agentCols = Arrays.copyOf(parent.agentCols, parent.agentCols.length);
-        this.boxes = new char[parent.boxes.length][];
-        for (int i = 0; i < parent.boxes.length; i++)
-        {
-            this.boxes[i] = Arrays.copyOf(parent.boxes[i], parent.boxes[i].length);
-        }
-        this.goals = new char[parent.goals.length][];
-        for (int i = 0; i < parent.goals.length; i++)
-        {
-            this.goals[i] = Arrays.copyOf(parent.goals[i], parent.goals[i].length);
-        }
-        this.walls = new boolean[parent.walls.length][];
-        for (int i = 0; i < parent.walls.length; i++)
-        {
-            this.walls[i] = Arrays.copyOf(parent.walls[i], parent.walls[i].length);
-        }
-        this.agentColors = Arrays.copyOf(parent.agentColors,parent.agentColors.length);
-        this.BoxPoint = new HashMap<>();
-        for(Point boxInitPos: parent.BoxPoint.keySet()){
-            this.BoxPoint.put(boxInitPos, parent.BoxPoint.get(boxInitPos));
-        }
-        PointBox = new HashMap<>();
-        for(Point boxCurrPos: parent.PointBox.keySet()){
-            this.PointBox.put(boxCurrPos, parent.PointBox.get(boxCurrPos));
-        }
+        this.boxes = parent.boxes;
+        this.boxCells = parent.boxCells;
+        this.level = parent.level;
+        this.zobrist = parent.zobrist;
 
         // Set own parameters
         this.parent = parent;
-        this.jointAction = Arrays.copyOf(jointAction, jointAction.length);
+        this.jointAction = jointAction;
         this.g = parent.g + 1;
         this.manage = parent.manage;
 
@@ -122,7 +125,12 @@ public class State
         for (int agent = 0; agent < numAgents; ++agent)
         {
             Action action = jointAction[agent];
-            Point boxId;
+            if (action != Action.NoOp)
+            {
+                this.zobrist ^= this.level.agentKey(agent, this.level.cell(this.agentRows[agent], this.agentCols[agent]))
+                        ^ this.level.agentKey(agent, this.level.cell(this.agentRows[agent] + action.agentRowDelta,
+                                                                     this.agentCols[agent] + action.agentColDelta));
+            }
 
             switch (action.type)
             {
@@ -137,82 +145,154 @@ public class State
                 case Push:
                     this.agentRows[agent] += action.agentRowDelta;
                     this.agentCols[agent] += action.agentColDelta;
-                    this.boxes[this.agentRows[agent] + action.boxRowDelta][this.agentCols[agent] + action.boxColDelta] = this.boxes[this.agentRows[agent]][this.agentCols[agent]];
-                    this.boxes[this.agentRows[agent]][this.agentCols[agent]] = 0;
-
-                    //Get box's point-id from the HaspMap which has the current location as the key
-                    boxId = this.PointBox.get(new Point(this.agentRows[agent], this.agentCols[agent]));
-                    //Update the location in the HaspMap which has the point-id as the key
-                    this.BoxPoint.put(boxId, new Point(this.agentRows[agent] + action.boxRowDelta, this.agentCols[agent] + action.boxColDelta));
-                    //Update the HaspMap which has the current location as the key
-                    this.PointBox.remove(new Point(this.agentRows[agent], this.agentCols[agent]));
-                    this.PointBox.put(new Point(this.agentRows[agent] + action.boxRowDelta, this.agentCols[agent] + action.boxColDelta),boxId);
+                    this.moveBox(parent, this.agentRows[agent], this.agentCols[agent],
+                                 this.agentRows[agent] + action.boxRowDelta, this.agentCols[agent] + action.boxColDelta);
                     break;
                 case Pull:
-                    //Get box's point-id from the HaspMap which has the current location as the key
-                    boxId = this.PointBox.get(new Point(this.agentRows[agent]-action.boxRowDelta, this.agentCols[agent]-action.boxColDelta));
-                    //Update the location in the HaspMap which has the point-id as the key
-                    this.BoxPoint.put(boxId, new Point(this.agentRows[agent], this.agentCols[agent]));
-                    //Update the HaspMap which has the current location as the key
-                    this.PointBox.remove(new Point(this.agentRows[agent]-action.boxRowDelta, this.agentCols[agent]-action.boxColDelta));
-                    this.PointBox.put(new Point(this.agentRows[agent], this.agentCols[agent]),boxId);
-
                     //The box is in agent's place minus box-movement and it will be moved in agents place.
-                    this.boxes[this.agentRows[agent]][this.agentCols[agent]] = this.boxes[this.agentRows[agent]-action.boxRowDelta][this.agentCols[agent]-action.boxColDelta];
-                    this.boxes[this.agentRows[agent]-action.boxRowDelta][this.agentCols[agent]-action.boxColDelta] = 0;
+                    this.moveBox(parent, this.agentRows[agent] - action.boxRowDelta, this.agentCols[agent] - action.boxColDelta,
+                                 this.agentRows[agent], this.agentCols[agent]);
                     this.agentRows[agent] += action.agentRowDelta;
                     this.agentCols[agent] += action.agentColDelta;
                     break;
             }
         }
     }
+
+    // Moves the box at (fromRow, fromCol) to (toRow, toCol), copying the shared rows and box cells on first write.
+    private void moveBox(State parent, int fromRow, int fromCol, int toRow, int toCol)
+    {
+        if (this.boxes == parent.boxes)
+        {
+            this.boxes = Arrays.copyOf(parent.boxes, parent.boxes.length);
+        }
+        if (this.boxes[fromRow] == parent.boxes[fromRow])
+        {
+            this.boxes[fromRow] = Arrays.copyOf(parent.boxes[fromRow], parent.boxes[fromRow].length);
+        }
+        if (this.boxes[toRow] == parent.boxes[toRow])
+        {
+            this.boxes[toRow] = Arrays.copyOf(parent.boxes[toRow], parent.boxes[toRow].length);
+        }
+        char box = this.boxes[fromRow][fromCol];
+        char overwritten = this.boxes[toRow][toCol];
+        this.boxes[toRow][toCol] = box;
+        this.boxes[fromRow][fromCol] = 0;
+        if (box != 0)
+        {
+            this.zobrist ^= this.level.boxKey(this.level.cell(fromRow, fromCol), box)
+                    ^ this.level.boxKey(this.level.cell(toRow, toCol), box);
+        }
+        if (overwritten != 0)
+        {
+            // Only happens when replaying conflicting plans in GraphSearch.executeSolution.
+            this.zobrist ^= this.level.boxKey(this.level.cell(toRow, toCol), overwritten);
+        }
+
+        int boxId = this.boxIdAt(this.level.cell(fromRow, fromCol));
+        if (boxId >= 0)
+        {
+            if (this.boxCells == parent.boxCells)
+            {
+                this.boxCells = Arrays.copyOf(parent.boxCells, parent.boxCells.length);
+            }
+            this.boxCells[boxId] = this.level.cell(toRow, toCol);
+        }
+    }
+
+    // Cell to box lookup. Only pushes and pulls need it, and the registry of a search is small,
+    // so scanning it is cheaper than keeping a per-state index up to date.
+    public int boxIdAt(int cell)
+    {
+        for (int id = 0; id < this.boxCells.length; id++)
+        {
+            if (this.boxCells[id] == cell)
+            {
+                return id;
+            }
+        }
+        return -1;
+    }
+
     public int g()
     {
         return this.g;
     }
 
+    /*
+        Rebuilds a state from its packed key (see pack), with the level and the constraints of template.
+        This is how a state that has only been kept as an entry of SearchNodes comes back (FrontierExternal).
+    */
+    State(State template, long[] key, int g, Action[] jointAction)
+    {
+        int numAgents = template.agentRows.length;
+        this.level = template.level;
+        this.manage = template.manage;
+        this.g = g;
+        this.jointAction = jointAction;
+
+        int field = numAgents == 1 ? 1 : 0;
+        this.agentRows = new int[numAgents];
+        this.agentCols = new int[numAgents];
+        for (int agent = 0; agent < numAgents; agent++, field++)
+        {
+            int cell = getField(key, field);
+            this.agentRows[agent] = this.level.row(cell);
+            this.agentCols[agent] = this.level.col(cell);
+            this.zobrist ^= this.level.agentKey(agent, cell);
+        }
+
+        this.boxes = new char[template.boxes.length][];
+        for (int row = 0; row < this.boxes.length; row++)
+        {
+            this.boxes[row] = new char[template.boxes[row].length];
+        }
+        this.boxCells = new int[template.boxCells.length];
+        for (int id = 0; id < this.boxCells.length; id++, field++)
+        {
+            int cell = getField(key, field);
+            if (cell == 0xFFFF)
+            {
+                this.boxCells[id] = -1;
+                continue;
+            }
+            char letter = this.level.boxLetters[id];
+            this.boxCells[id] = cell;
+            this.boxes[this.level.row(cell)][this.level.col(cell)] = letter;
+            this.zobrist ^= this.level.boxKey(cell, letter);
+        }
+    }
+
     public State(State other) {
         this.agentRows = Arrays.copyOf(other.agentRows, other.agentRows.length);
         this.agentCols = Arrays.copyOf(other.agentCols, other.agentCols.length);
-        this.agentColors = Arrays.copyOf(other.agentColors, other.agentColors.length);
-
-        this.walls = new boolean[other.walls.length][];
-        for (int i = 0; i < other.walls.length; i++) {
-            this.walls[i] = Arrays.copyOf(other.walls[i], other.walls[i].length);
-        }
+        this.level = other.level;
 
         this.boxes = new char[other.boxes.length][];
         for (int i = 0; i < other.boxes.length; i++) {
             this.boxes[i] = Arrays.copyOf(other.boxes[i], other.boxes[i].length);
         }
 
-        this.goals = new char[other.goals.length][];
-        for (int i = 0; i < other.goals.length; i++) {
-            this.goals[i] = Arrays.copyOf(other.goals[i], other.goals[i].length);
-        }
-
-        this.BoxPoint = new HashMap<>(other.BoxPoint);
-        this.PointBox = new HashMap<>(other.PointBox);
+        this.boxCells = Arrays.copyOf(other.boxCells, other.boxCells.length);
+        this.zobrist = other.zobrist;
         this.manage = new Manage(other.manage); // Assuming Manage has a copy constructor
 
         // These are immutable in the context of a single state transition, so shared references are safe
         this.parent = other.parent;
+        this.nodes = other.nodes;
+        this.nodeIndex = other.nodeIndex;
         this.jointAction = other.jointAction; // Typically null for a new state that's a copy
         this.g = other.g;
     }
     public boolean isGoalStateLastSubGoal() {
         // Check for any late-stage conflict in managing agents
-        if (!this.manage.isEmpty()) {
-            for (Character agent : this.manage.constrains.keySet()) {
-                if (this.g <= this.manage.getMaxTimeFrame(agent)) {
-                    return false;
-                }
-            }
+        if (this.g <= this.manage.getMaxTimeFrame()) {
+            return false;
         }
         // Check for alignment of goals with boxes and agents
-        for (int row = 1; row < this.goals.length - 1; row++) {
-            for (int col = 1; col < this.goals[row].length - 1; col++) {
-                char goal = this.goals[row][col];
+        for (int row = 1; row < this.level.goals.length - 1; row++) {
+            for (int col = 1; col < this.level.goals[row].length - 1; col++) {
+                char goal = this.level.goals[row][col];
                 if (isGoalMismatch(goal, row, col)) {
                     return false;
                 }
@@ -230,47 +310,144 @@ public class State
     }
     public boolean isSubGoalState(SubGoal subGoal) {
         // Check if the agent is constrained at the current time and position
-        if (this.manage.isAgentConstrained('0', this.g, new Point(agentRows[0], agentCols[0]))) {
+        if (this.manage.isAgentConstrained('0', this.g, agentRows[0], agentCols[0])) {
             return false;
         }
 
         // Handle cases based on whether a box is associated with the subGoal
         if (subGoal.box == null) {
-            return subGoal.goal.equals(new Point(this.agentRows[0], this.agentCols[0]));
+            return (int) subGoal.goal.getX() == this.agentRows[0] && (int) subGoal.goal.getY() == this.agentCols[0];
         } else {
-            Point currLocBox = this.BoxPoint.get(subGoal.box);
-            return currLocBox != null && subGoal.goal.equals(currLocBox);
+            int boxId = this.level.boxId((int) subGoal.box.getX(), (int) subGoal.box.getY());
+            return boxId >= 0 && this.boxCells[boxId] == this.level.cell((int) subGoal.goal.getX(), (int) subGoal.goal.getY());
         }
     }
 
     public ArrayList<State> getExpandedStates()
     {
-        int numAgents = this.agentRows.length;
         ArrayList<State> expandedStates = new ArrayList<>(16);
+        this.getExpandedStates(expandedStates);
+        return expandedStates;
+    }
+
+    /*
+        Same as getExpandedStates(), but the children are written into a list owned by the caller, which is
+        cleared first. Searches keep one list for all their expansions, and apart from the children themselves
+        nothing is allocated: the applicable actions, the joint action being tried and the buffers of the
+        conflict check come from the scratch buffers of the current thread.
+    */
+    public void getExpandedStates(ArrayList<State> expandedStates)
+    {
+        expandedStates.clear();
+        ArrayList<Action[]> jointActions = EXPANSION.get().jointActions;
+        this.getExpandedActions(jointActions);
+        for (Action[] jointAction : jointActions)
+        {
+            expandedStates.add(new State(this, jointAction, true));
+        }
+    }
+
+    /*
+        The joint actions that lead to the children of getExpandedStates, in the same (shuffled) order, without
+        building the children. Together with packChild and child this lets a search throw away a child it has
+        already seen before paying for its copy. The arrays must not be modified, single-agent joint actions
+        are shared by every state.
+    */
+    public void getExpandedActions(ArrayList<Action[]> jointActions)
+    {
+        this.selectActions(jointActions, null, 0);
+    }
+
+    /*
+        Operator selection of partial expansion (see PartialExpansion): only the joint actions of
+        getExpandedActions in which no agent has a value above limit and at least one agent has exactly limit.
+        value[agent][action.ordinal()] is given for the actions the walls allow from the cell of the agent.
+        Returns the lowest value above limit that the highest value of a joint action can take, conflicts left
+        aside, or Integer.MAX_VALUE if there is none: the children with that value are the next ones to select.
+    */
+    public int getSelectedActions(ArrayList<Action[]> jointActions, int[][] value, int limit)
+    {
+        return this.selectActions(jointActions, value, limit);
+    }
+
+    private int selectActions(ArrayList<Action[]> jointActions, int[][] value, int limit)
+    {
+        jointActions.clear();
+        int numAgents = this.agentRows.length;
+        Expansion scratch = EXPANSION.get();
+        scratch.ensureCapacity(numAgents);
 
         // Determine list of applicable actions for each individual agent.
-        Action[][] applicableActions = new Action[numAgents][];
+        Action[][] applicableActions = scratch.applicableActions;
+        int[] numApplicable = scratch.numApplicable;
+        // The highest value of a joint action is at least floor, the highest of the lowest values of the agents.
+        int floor = Integer.MIN_VALUE;
+        int next = Integer.MAX_VALUE;
+        boolean selected = true;
         for (int agent = 0; agent < numAgents; ++agent)
         {
-            ArrayList<Action> agentActions = new ArrayList<>(Action.values().length);
-            for (Action action : Action.values())
+            int count = 0;
+            int lowest = Integer.MAX_VALUE;
+            boolean any = false;
+            // Only the actions that the walls allow from the agent's cell, in the same order as Action.VALUES.
+            for (int mask = this.level.actionMask(this.agentRows[agent], this.agentCols[agent]); mask != 0; mask &= mask - 1)
             {
-                if (this.isApplicable(agent, action))
+                Action action = Action.VALUES[Integer.numberOfTrailingZeros(mask)];
+                if (!this.isDynamicallyApplicable(agent, action))
                 {
-                    agentActions.add(action);
+                    continue;
+                }
+                any = true;
+                if (value != null)
+                {
+                    int v = value[agent][action.ordinal()];
+                    lowest = Math.min(lowest, v);
+                    if (v > limit)
+                    {
+                        next = Math.min(next, v);
+                        continue;
+                    }
                 }
+                applicableActions[agent][count++] = action;
             }
-            //System.out.println(agentActions);
-            if(agentActions.isEmpty()){
-                return expandedStates;
-            } else {
-                applicableActions[agent] = agentActions.toArray(new Action[0]);
+            if (!any)
+            {
+                return Integer.MAX_VALUE;
             }
+            floor = Math.max(floor, lowest);
+            // An agent with nothing within the limit leaves no joint action to select, but next is still needed.
+            selected &= count > 0;
+            numApplicable[agent] = count;
+        }
+        if (value != null && next < floor)
+        {
+            // Only the values of the agent with the highest lowest value can be the highest of a joint action.
+            next = this.nextValue(value, limit, floor);
+        }
+        if (!selected)
+        {
+            return next;
         }
 
-        // Iterate over joint actions, check conflict and generate child states.
-        Action[] jointAction = new Action[numAgents];
-        int[] actionsPermutation = new int[numAgents];
+        if (numAgents == 1)
+        {
+            // A single agent never conflicts with itself.
+            for (int i = 0; i < numApplicable[0]; i++)
+            {
+                Action action = applicableActions[0][i];
+                if (value == null || value[0][action.ordinal()] == limit)
+                {
+                    jointActions.add(SINGLE_ACTIONS[action.ordinal()]);
+                }
+            }
+            Collections.shuffle(jointActions, State.RNG);
+            return next;
+        }
+
+        // Iterate over joint actions, check conflict and collect the ones of the children.
+        Action[] jointAction = scratch.jointAction;
+        int[] actionsPermutation = scratch.actionsPermutation;
+        Arrays.fill(actionsPermutation, 0, numAgents, 0);
         while (true)
         {
             for (int agent = 0; agent < numAgents; ++agent)
@@ -278,16 +455,16 @@ public class State
                 jointAction[agent] = applicableActions[agent][actionsPermutation[agent]];
             }
 
-            if (!this.isConflicting(jointAction))
+            if (this.reachesLimit(jointAction, value, limit) && !this.isConflicting(jointAction, scratch))
             {
-                expandedStates.add(new State(this, jointAction));
+                jointActions.add(Arrays.copyOf(jointAction, numAgents));
             }
 
             // Advance permutation
             boolean done = false;
             for (int agent = 0; agent < numAgents; ++agent)
             {
-                if (actionsPermutation[agent] < applicableActions[agent].length - 1)
+                if (actionsPermutation[agent] < numApplicable[agent] - 1)
                 {
                     ++actionsPermutation[agent];
                     break;
@@ -309,15 +486,132 @@ public class State
             }
         }
 
-        Collections.shuffle(expandedStates, State.RNG);
-        return expandedStates;
+        Collections.shuffle(jointActions, State.RNG);
+        return next;
+    }
+
+    // Whether some agent of the joint action has exactly the limit as its value, always true without values.
+    private boolean reachesLimit(Action[] jointAction, int[][] value, int limit)
+    {
+        if (value == null)
+        {
+            return true;
+        }
+        for (int agent = 0; agent < jointAction.length; ++agent)
+        {
+            if (value[agent][jointAction[agent].ordinal()] == limit)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Lowest value of an applicable action at or above floor and above limit, see getSelectedActions.
+    private int nextValue(int[][] value, int limit, int floor)
+    {
+        int next = Integer.MAX_VALUE;
+        for (int agent = 0; agent < this.agentRows.length; ++agent)
+        {
+            for (int mask = this.level.actionMask(this.agentRows[agent], this.agentCols[agent]); mask != 0; mask &= mask - 1)
+            {
+                Action action = Action.VALUES[Integer.numberOfTrailingZeros(mask)];
+                int v = value[agent][action.ordinal()];
+                if (v > limit && v >= floor && v < next && this.isDynamicallyApplicable(agent, action))
+                {
+                    next = v;
+                }
+            }
+        }
+        return next;
+    }
+
+    // Builds the child reached by a joint action of getExpandedActions. The array is kept, not copied.
+    public State child(Action[] jointAction)
+    {
+        return new State(this, jointAction, true);
+    }
+
+    /*
+        Packs the child reached by the joint action into key, exactly like child(jointAction).pack(key) would,
+        but from the cells of this state and the action deltas alone.
+    */
+    public void packChild(Action[] jointAction, long[] key)
+    {
+        this.pack(key);
+        int numAgents = this.agentRows.length;
+        int field = 0;
+        if (numAgents == 1)
+        {
+            setField(key, 0, this.g + 1);
+            field = 1;
+        }
+        int boxFields = field + numAgents;
+        for (int agent = 0; agent < numAgents; agent++)
+        {
+            Action action = jointAction[agent];
+            if (action == Action.NoOp)
+            {
+                continue;
+            }
+            int row = this.agentRows[agent];
+            int col = this.agentCols[agent];
+            int destinationRow = row + action.agentRowDelta;
+            int destinationCol = col + action.agentColDelta;
+            setField(key, field + agent, this.level.cell(destinationRow, destinationCol));
+
+            int boxId = -1;
+            int boxDestination = -1;
+            switch (action.type)
+            {
+                case Push:
+                    boxId = this.boxIdAt(this.level.cell(destinationRow, destinationCol));
+                    boxDestination = this.level.cell(destinationRow + action.boxRowDelta, destinationCol + action.boxColDelta);
+                    break;
+                case Pull:
+                    boxId = this.boxIdAt(this.level.cell(row - action.boxRowDelta, col - action.boxColDelta));
+                    boxDestination = this.level.cell(row, col);
+                    break;
+                default:
+                    break;
+            }
+            if (boxId >= 0)
+            {
+                setField(key, boxFields + boxId, boxDestination);
+            }
+        }
+    }
+
+    private static int getField(long[] key, int field)
+    {
+        return (int) (key[field >> 2] >>> ((field & 3) << 4)) & 0xFFFF;
+    }
+
+    private static void setField(long[] key, int field, int value)
+    {
+        int shift = (field & 3) << 4;
+        key[field >> 2] = (key[field >> 2] & ~(0xFFFFL << shift)) | ((long) (value & 0xFFFF) << shift);
+    }
+
+    // Whether the agent of a single-agent state can perform the action now: walls, boxes and constraints.
+    public boolean isApplicable(Action action)
+    {
+        return this.isApplicable(0, action);
     }
 
     private boolean isApplicable(int agent, Action action)
+    {
+        return (this.level.actionMask(this.agentRows[agent], this.agentCols[agent]) & (1 << action.ordinal())) != 0
+                && this.isDynamicallyApplicable(agent, action);
+    }
+
+    // The part of isApplicable that depends on the state: boxes, agents and constraints.
+    // The walls have already been checked through the action mask of the agent's cell.
+    private boolean isDynamicallyApplicable(int agent, Action action)
     {
         int agentRow = this.agentRows[agent];
         int agentCol = this.agentCols[agent];
-        Color agentColor = this.agentColors[agent];
+        Color agentColor = this.level.agentColors[agent];
         int boxRow;
         int boxCol;
         int destinationRowAgent;
@@ -328,49 +622,36 @@ public class State
         {
 
             case NoOp:
-                if(this.manage.constrains.containsKey((char)(agent+'0'))){
-                    for(Constrain con: this.manage.constrains.get((char)(agent+'0'))){
-                        if(Objects.equals(con.type, "box") && this.g+1 == con.timeframe){
-                            if(!this.cellIsFree((int) con.point.getX(), (int) con.point.getY())){
-                                return false;
-                            }
-                        }
+                for(int cell: this.manage.getBoxConstrains((char)(agent+'0'), this.g+1)){
+                    if(!this.cellIsFree(Manage.row(cell), Manage.col(cell))){
+                        return false;
                     }
                 }
                 return this.isNotContrained((char)(agent + '0'),agentRow, agentCol);
 
             case Move:
-                if(this.manage.constrains.containsKey((char)(agent+'0'))){
-                    for(Constrain con: this.manage.constrains.get((char)(agent+'0'))){
-                        if(Objects.equals(con.type, "box") && this.g+1 == con.timeframe){
-                            if(!this.cellIsFree((int) con.point.getX(), (int) con.point.getY())){
-                                return false;
-                            }
-                        }
+                for(int cell: this.manage.getBoxConstrains((char)(agent+'0'), this.g+1)){
+                    if(!this.cellIsFree(Manage.row(cell), Manage.col(cell))){
+                        return false;
                     }
                 }
                 destinationRowAgent = agentRow + action.agentRowDelta;
                 destinationColAgent = agentCol + action.agentColDelta;
                 //System.out.println(this.isNotContrained((char)(agent + '0'),destinationRowAgent, destinationColAgent));
-                return this.cellIsFree(destinationRowAgent, destinationColAgent) && this.isNotContrained((char)(agent + '0'),destinationRowAgent, destinationColAgent);
+                return this.cellIsUnoccupied(destinationRowAgent, destinationColAgent) && this.isNotContrained((char)(agent + '0'),destinationRowAgent, destinationColAgent);
             case Push:
                 destinationRowAgent = agentRow + action.agentRowDelta;
                 destinationColAgent = agentCol + action.agentColDelta;
                 destinationRowBox = destinationRowAgent + action.boxRowDelta;
                 destinationColBox = destinationColAgent + action.boxColDelta;
 
-                if(this.manage.constrains.containsKey((char)(agent+'0'))){
-                    for(Constrain con: this.manage.constrains.get((char)(agent+'0'))){
-                        if(con.type.equals("box") && this.g+1 == con.timeframe){
-                            if((destinationRowBox == (int) con.point.getX() && destinationColBox == (int) con.point.getY() )){
-                                return false;
-                            }
-                        }
+                for(int cell: this.manage.getBoxConstrains((char)(agent+'0'), this.g+1)){
+                    if(destinationRowBox == Manage.row(cell) && destinationColBox == Manage.col(cell)){
+                        return false;
                     }
                 }
 
-                return !this.walls[destinationRowAgent][destinationColAgent]
-                        && this.cellIsFree(destinationRowBox, destinationColBox)
+                return this.cellIsUnoccupied(destinationRowBox, destinationColBox)
                         && this.isBoxOfColor(destinationRowAgent,destinationColAgent,agentColor)
                         && this.isNotContrained((char)(agent + '0'),destinationRowAgent, destinationColAgent);
 
@@ -380,19 +661,15 @@ public class State
                 destinationRowBox = agentRow;
                 destinationColBox = agentCol;
 
-                if(this.manage.constrains.containsKey((char)(agent+'0'))){
-                    for(Constrain con: this.manage.constrains.get((char)(agent+'0'))){
-                        if(con.type.equals("box") && this.g+1 == con.timeframe){
-                            if((destinationRowBox == (int) con.point.getX() && destinationColBox == (int) con.point.getY() )){
-                                return false;
-                            }
-                        }
+                for(int cell: this.manage.getBoxConstrains((char)(agent+'0'), this.g+1)){
+                    if(destinationRowBox == Manage.row(cell) && destinationColBox == Manage.col(cell)){
+                        return false;
                     }
                 }
 
                 boxRow = agentRow-action.boxRowDelta;
                 boxCol = agentCol-action.boxColDelta;
-                return this.cellIsFree(destinationRowAgent, destinationColAgent)
+                return this.cellIsUnoccupied(destinationRowAgent, destinationColAgent)
                         && this.isBoxOfColor(boxRow,boxCol,agentColor)
                         && this.isNotContrained((char)(agent + '0'),destinationRowAgent, destinationColAgent);
         }
@@ -402,102 +679,111 @@ public class State
     }
 
     public boolean isConflicting(Action[] jointAction)
+    {
+        Expansion scratch = EXPANSION.get();
+        scratch.ensureCapacity(this.agentRows.length);
+        return this.isConflicting(jointAction, scratch);
+    }
+
+    private boolean isConflicting(Action[] jointAction, Expansion scratch)
+    {
+        int numAgents = this.agentRows.length;
+        this.collectMoves(jointAction, scratch);
+
+        // Agents doing NoOp can not conflict here, the applicability check already made sure their cell is kept free.
+        OccupancyTable occupancy = scratch.occupancy;
+        occupancy.reset(this.level.numRows * this.level.numCols, numAgents);
+        for (int agent = 0; agent < numAgents; ++agent)
+        {
+            if (jointAction[agent] != Action.NoOp)
+            {
+                this.occupy(occupancy, agent, scratch);
+            }
+        }
+        for (int agent = 0; agent < numAgents; ++agent)
+        {
+            if (jointAction[agent] != Action.NoOp && occupancy.conflicts(agent) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+        Fills the destination and box buffers of the scratch with the cells used by the joint action.
+        boxRows/boxCols is the cell of the box moved by the agent and destinationBoxRows/destinationBoxCols
+        where it goes, both -1 if the agent does not push or pull.
+    */
+    private void collectMoves(Action[] jointAction, Expansion scratch)
     {
         int numAgents = this.agentRows.length;
+        int[] destinationRows = scratch.destinationRows; // row of new cell to become occupied by action
+        int[] destinationCols = scratch.destinationCols; // column of new cell to become occupied by action
+        int[] boxRows = scratch.boxRows; // current row of box
+        int[] boxCols = scratch.boxCols; // current column of box
+        int[] destinationBoxRows = scratch.destinationBoxRows; // destination row of box moved by action
+        int[] destinationBoxCols = scratch.destinationBoxCols; // destination column of box moved by action
 
-        int[] destinationRows = new int[numAgents]; // row of new cell to become occupied by action
-        int[] destinationCols = new int[numAgents]; // column of new cell to become occupied by action
-        int[] boxRows = new int[numAgents]; // current row of box
-        int[] boxCols = new int[numAgents]; // current column of box
-        int[] destinationBoxRows = new int[numAgents]; // destination row of box moved by action
-        int[] destinationBoxCols = new int[numAgents]; // destination column of box moved by action
-        //Initialize box with negative values, different from each other.
-        for(int i=-1000; i<numAgents-1000; i++){
-            destinationBoxRows[i+1000] = i;
-            destinationBoxCols[i+1000] = i;
-            boxRows[i+1000] = -i;
-            boxCols[i+1000] = -i;
-        }
-
-        // Collect cells to be occupied and boxes to be moved
         for (int agent = 0; agent < numAgents; ++agent)
         {
             Action action = jointAction[agent];
             int agentRow = this.agentRows[agent];
             int agentCol = this.agentCols[agent];
+            destinationRows[agent] = agentRow + action.agentRowDelta;
+            destinationCols[agent] = agentCol + action.agentColDelta;
 
             switch (action.type)
             {
-                case NoOp:
-                    destinationRows[agent] = agentRow;
-                    destinationCols[agent] = agentCol;
-                    break;
-
-                case Move:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
-                    break;
                 case Push:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
-                    destinationBoxRows[agent] = destinationRows[agent] + action.boxRowDelta;
-                    destinationBoxCols[agent] = destinationCols[agent] + action.boxColDelta;
                     boxRows[agent] = destinationRows[agent];
                     boxCols[agent] = destinationCols[agent];
-
+                    destinationBoxRows[agent] = destinationRows[agent] + action.boxRowDelta;
+                    destinationBoxCols[agent] = destinationCols[agent] + action.boxColDelta;
                     break;
                 case Pull:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
+                    boxRows[agent] = agentRow - action.boxRowDelta;
+                    boxCols[agent] = agentCol - action.boxColDelta;
                     destinationBoxRows[agent] = agentRow;
                     destinationBoxCols[agent] = agentCol;
-                    boxRows[agent] = destinationBoxRows[agent] - action.boxRowDelta;
-                    boxCols[agent] = destinationBoxCols[agent] - action.boxColDelta;
+                    break;
+                default:
+                    boxRows[agent] = -1;
+                    boxCols[agent] = -1;
+                    destinationBoxRows[agent] = -1;
+                    destinationBoxCols[agent] = -1;
                     break;
             }
         }
+    }
 
-        for (int a1 = 0; a1 < numAgents; ++a1)
-        {
-            if (jointAction[a1] == Action.NoOp)
-            {
-                continue;
-            }
-
-            for (int a2 = a1 + 1; a2 < numAgents; ++a2)
-            {
-                if (jointAction[a2] == Action.NoOp)
-                {
-                    continue;
-                }
+    private void occupy(OccupancyTable occupancy, int agent, Expansion scratch)
+    {
+        occupancy.add(agent,
+                      this.cellInLevel(this.agentRows[agent], this.agentCols[agent]),
+                      this.cellInLevel(scratch.destinationRows[agent], scratch.destinationCols[agent]),
+                      this.cellInLevel(scratch.boxRows[agent], scratch.boxCols[agent]),
+                      this.cellInLevel(scratch.destinationBoxRows[agent], scratch.destinationBoxCols[agent]));
+    }
 
-                // Vertex conflict
-                if ((destinationRows[a1] == destinationRows[a2] && destinationCols[a1] == destinationCols[a2]) ||
-                        (destinationRows[a1] == destinationBoxRows[a2] && destinationCols[a1] == destinationBoxCols[a2]) ||
-                        (destinationRows[a2] == destinationBoxRows[a1] && destinationCols[a2] == destinationBoxCols[a1]) ||
-                        (destinationBoxRows[a1] == destinationBoxRows[a2] && destinationBoxCols[a1] == destinationBoxCols[a2])) {
-                    return true;
-                }
-                // Edge conflict and Follow Conflict
-                else if ((destinationRows[a1] == this.agentRows[a2] && destinationCols[a1] == this.agentCols[a2]) ||
-                        (destinationRows[a2] == this.agentRows[a1] && destinationCols[a2] == this.agentCols[a1]) ||
-                        (destinationBoxRows[a1] == boxRows[a2] && destinationBoxCols[a1] == boxCols[a2]) ||
-                        (destinationBoxRows[a2] == boxRows[a1] && destinationBoxCols[a2] == boxCols[a1]) ||
-                        (destinationRows[a1] == boxRows[a2] && destinationCols[a1] == boxCols[a2]) ||
-                        (destinationRows[a2] == boxRows[a1] && destinationCols[a2] == boxCols[a1]) ||
-                        (destinationBoxRows[a1] == this.agentRows[a2] && destinationBoxCols[a1] == this.agentCols[a2]) ||
-                        (destinationBoxRows[a2] == this.agentRows[a1] && destinationBoxCols[a2] == this.agentCols[a1])) {
-                    return true;
-                }
-            }
+    // Flattened cell, or -1 if (row, col) is outside of the level.
+    private int cellInLevel(int row, int col)
+    {
+        if (row < 0 || row >= this.level.numRows || col < 0 || col >= this.level.numCols)
+        {
+            return -1;
         }
-
-        return false;
+        return this.level.cell(row, col);
     }
 
     private boolean cellIsFree(int row, int col)
     {
-        return !this.walls[row][col] && this.boxes[row][col] == 0 && this.agentAt(row, col) == 0;
+        return !this.level.walls[row][col] && this.cellIsUnoccupied(row, col);
+    }
+
+    private boolean cellIsUnoccupied(int row, int col)
+    {
+        return this.boxes[row][col] == 0 && this.agentAt(row, col) == 0;
     }
 
 
@@ -515,6 +801,10 @@ public class State
 
     public Action[][] extractPlan()
     {
+        if (this.nodes != null)
+        {
+            return this.nodes.extractPlan(this);
+        }
         Action[][] plan = new Action[this.g][];
         State state = this;
         while (state.jointAction != null)
@@ -533,12 +823,11 @@ public class State
 
     public HashMap<Character, HashSet<Point>> getBoxesCoord() {
         HashMap<Character, HashSet<Point>> boxesCoord = new HashMap<>();
-        for (int row = 1; row < this.boxes.length - 1; row++) {
-            for (int col = 1; col < this.boxes[row].length - 1; col++) {
-                char box = this.boxes[row][col];
-                if ('A' <= box && box <= 'Z') {
-                    boxesCoord.computeIfAbsent(box, k -> new HashSet<>()).add(new Point(row, col));
-                }
+        for (int id = 0; id < this.boxCells.length; id++) {
+            int cell = this.boxCells[id];
+            if (cell >= 0) {
+                boxesCoord.computeIfAbsent(this.level.boxLetters[id], k -> new HashSet<>())
+                          .add(new Point(this.level.row(cell), this.level.col(cell)));
             }
         }
         return boxesCoord;
@@ -547,9 +836,9 @@ public class State
     public HashMap<Character, HashSet<Point>> getGoals() {
         HashMap<Character, HashSet<Point>> goals = new HashMap<>();
 
-        for (int row = 1; row < this.goals.length - 1; row++) {
-            for (int col = 1; col < this.goals[row].length - 1; col++) {
-                char goal = this.goals[row][col];
+        for (int row = 1; row < this.level.goals.length - 1; row++) {
+            for (int col = 1; col < this.level.goals[row].length - 1; col++) {
+                char goal = this.level.goals[row][col];
                 if (('A' <= goal && goal <= 'Z' && isExistAgentForBox(goal)) || ('0' <= goal && goal <= '9')) {
                     goals.computeIfAbsent(goal, k -> new HashSet<>()).add(new Point(row, col));
                 }
@@ -557,28 +846,31 @@ public class State
         }
         return goals;
     }
-    private void fillBoxesThatCanNotBeMoved(){
-        HashMap<Character,HashSet<Point>> boxes = this.getBoxesCoord();
-        for (Character box : boxes.keySet() ){
-            boolean exist = false;
-            for (int a=0; a<this.agentRows.length;a++){
-                if (boxColors[box-'A'] == this.agentColors[a]){
-                    exist = true;
-                    break;
+    private void fillBoxesThatCanNotBeMoved(boolean[][] walls, Color[] agentColors){
+        for (int row = 1; row < this.boxes.length - 1; row++) {
+            for (int col = 1; col < this.boxes[row].length - 1; col++) {
+                char box = this.boxes[row][col];
+                if (box < 'A' || box > 'Z') {
+                    continue;
                 }
-            }
-            if (!exist){
-                for (Point boxP : boxes.get(box)){
-                    this.boxes[(int) boxP.getX()][(int) boxP.getY()]= 0;
-                    this.walls[(int) boxP.getX()][(int) boxP.getY()] = true;
+                boolean exist = false;
+                for (int a=0; a<this.agentRows.length;a++){
+                    if (boxColors[box-'A'] == agentColors[a]){
+                        exist = true;
+                        break;
+                    }
+                }
+                if (!exist){
+                    this.boxes[row][col] = 0;
+                    walls[row][col] = true;
                 }
             }
         }
         /** Uncomment to test it.*/
         // String wally;
-        // for (int i = 0; i < this.walls.length; i++){
-        //     for(int y = 0; y < this.walls[0].length; y++){
-        //         if (this.walls[i][y]){
+        // for (int i = 0; i < walls.length; i++){
+        //     for(int y = 0; y < walls[0].length; y++){
+        //         if (walls[i][y]){
         //             wally = "wall";
         //         }
         //         else{
@@ -592,9 +884,22 @@ public class State
 
 
     public void setWall(SubGoal sub){
-        this.boxes[(int) sub.goal.getX()][(int) sub.goal.getY()] = 0;
-        this.walls[(int) sub.goal.getX()][(int) sub.goal.getY()] = true;
-        this.goals[(int) sub.goal.getX()][(int) sub.goal.getY()] = 0;
+        int row = (int) sub.goal.getX();
+        int col = (int) sub.goal.getY();
+        // The rows of boxes and the box cells may be shared with other states, never write through them.
+        int boxId = this.boxIdAt(this.level.cell(row, col));
+        if (boxId >= 0) {
+            this.boxCells = Arrays.copyOf(this.boxCells, this.boxCells.length);
+            this.boxCells[boxId] = -1;
+        }
+        if (this.boxes[row][col] != 0) {
+            this.zobrist ^= this.level.boxKey(this.level.cell(row, col), this.boxes[row][col]);
+        }
+        this.boxes = Arrays.copyOf(this.boxes, this.boxes.length);
+        this.boxes[row] = Arrays.copyOf(this.boxes[row], this.boxes[row].length);
+        this.boxes[row][col] = 0;
+        // Copy-on-write, other states keep pointing to the previous version of the level.
+        this.level = this.level.withWall(row, col);
     }
 
 
@@ -608,7 +913,7 @@ public class State
     private boolean isExistAgentForBox(char box){
         boolean exist = false;
         for (int a=0; a<this.agentRows.length;a++){
-            if (boxColors[box-'A'] == this.agentColors[a]){
+            if (boxColors[box-'A'] == this.level.agentColors[a]){
                 exist = true;
                 break;
             }
@@ -616,34 +921,58 @@ public class State
         return exist;
     }
 
+    // Replaces the parent pointer by the entry of the state in the nodes of its search.
+    public void attach(SearchNodes nodes, int nodeIndex)
+    {
+        this.nodes = nodes;
+        this.nodeIndex = nodeIndex;
+        this.parent = null;
+    }
+
+    // Number of longs needed by pack: 16 bits per agent cell, per box cell and for g in single-agent states.
+    public int packedLength()
+    {
+        int fields = this.agentRows.length + this.boxCells.length + (this.agentRows.length == 1 ? 1 : 0);
+        return (fields + 3) / 4;
+    }
+
+    /*
+        Packs the parts of the state that equals compares into key, four 16-bit fields per long.
+        The level version is left out, so only states of the same level version may be compared by key.
+        Removed boxes (cell -1) are packed as 0xFFFF.
+    */
+    public void pack(long[] key)
+    {
+        Arrays.fill(key, 0);
+        int field = 0;
+        if (this.agentRows.length == 1)
+        {
+            key[0] = this.g & 0xFFFF;
+            field = 1;
+        }
+        for (int agent = 0; agent < this.agentRows.length; agent++, field++)
+        {
+            long cell = this.level.cell(this.agentRows[agent], this.agentCols[agent]) & 0xFFFF;
+            key[field >> 2] |= cell << ((field & 3) << 4);
+        }
+        for (int id = 0; id < this.boxCells.length; id++, field++)
+        {
+            long cell = this.boxCells[id] & 0xFFFF;
+            key[field >> 2] |= cell << ((field & 3) << 4);
+        }
+    }
+
+    public long fingerprint()
+    {
+        return this.zobrist;
+    }
+
     @Override
     public int hashCode()
     {
-        if (this.hash == 0)
-        {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + Arrays.hashCode(this.agentColors);
-            result = prime * result + Arrays.hashCode(boxColors);
-            result = prime * result + Arrays.deepHashCode(this.walls);
-            result = prime * result + Arrays.deepHashCode(this.goals);
-            result = prime * result + Arrays.hashCode(this.agentRows);
-            result = prime * result + Arrays.hashCode(this.agentCols);
-            for (int row = 0; row < this.boxes.length; ++row)
-            {
-                for (int col = 0; col < this.boxes[row].length; ++col)
-                {
-                    char c = this.boxes[row][col];
-                    if (c != 0)
-                    {
-                        result = prime * result + (row * this.boxes[row].length + col) * c;
-                    }
-                }
-            }
-            if(this.agentRows.length == 1){ result = prime * result + this.g; }
-            this.hash = result;
-        }
-        return this.hash;
+        int result = (int) (this.zobrist ^ (this.zobrist >>> 32));
+        if(this.agentRows.length == 1){ result = 31 * result + this.g; }
+        return result;
     }
 
     @Override
@@ -662,24 +991,23 @@ public class State
             return false;
         }
         State other = (State) obj;
+        // Different fingerprints can never be equal states, only fall back to the full compare on a match.
+        if (this.zobrist != other.zobrist)
+        {
+            return false;
+        }
         if(this.agentRows.length == 1){
-            return Arrays.equals(this.agentRows, other.agentRows) &&
+            return this.g == other.g &&
+                    this.level.version == other.level.version &&
+                    Arrays.equals(this.agentRows, other.agentRows) &&
                     Arrays.equals(this.agentCols, other.agentCols) &&
-                    Arrays.equals(this.agentColors, other.agentColors) &&
-                    Arrays.deepEquals(this.walls, other.walls) &&
-                    Arrays.deepEquals(this.boxes, other.boxes) &&
-                    Arrays.equals(this.boxColors, boxColors) &&
-                    Arrays.deepEquals(this.goals, other.goals)
-                    && this.g == other.g
+                    Arrays.deepEquals(this.boxes, other.boxes)
                     ;
         } else{
-            return Arrays.equals(this.agentRows, other.agentRows) &&
+            return this.level.version == other.level.version &&
+                    Arrays.equals(this.agentRows, other.agentRows) &&
                     Arrays.equals(this.agentCols, other.agentCols) &&
-                    Arrays.equals(this.agentColors, other.agentColors) &&
-                    Arrays.deepEquals(this.walls, other.walls) &&
-                    Arrays.deepEquals(this.boxes, other.boxes) &&
-                    Arrays.equals(this.boxColors, boxColors) &&
-                    Arrays.deepEquals(this.goals, other.goals);
+                    Arrays.deepEquals(this.boxes, other.boxes);
         }
     }
 
@@ -687,15 +1015,15 @@ public class State
     public String toString()
     {
         StringBuilder s = new StringBuilder();
-        for (int row = 0; row < this.walls.length; row++)
+        for (int row = 0; row < this.level.walls.length; row++)
         {
-            for (int col = 0; col < this.walls[row].length; col++)
+            for (int col = 0; col < this.level.walls[row].length; col++)
             {
                 if (this.boxes[row][col] > 0)
                 {
                     s.append(this.boxes[row][col]);
                 }
-                else if (this.walls[row][col])
+                else if (this.level.walls[row][col])
                 {
                     s.append("+");
                 }
@@ -713,181 +1041,96 @@ public class State
         return s.toString();
     }
 
+    /*
+        Returns the number of conflicting agent pairs of the joint action, and the conflict of the first of
+        them (in order of agent numbers). Agents conflict when they, or the boxes they move, enter the same cell,
+        enter a cell the other one stands on, or enter the cell the other one's box comes from.
+        When no pair conflicts, an agent whose action is not applicable is reported as a single-agent
+        conflict instead, and counts once. Such an agent also counts once when it comes before the first
+        conflicting pair, which is how it was counted when every pair was compared one by one.
+    */
     public State.Pair<Integer,Conflict> returnFirstConflict(Action[] jointAction)
     {
         int numAgents = this.agentRows.length;
-
-        int[] destinationRows = new int[numAgents]; // row of new cell to become occupied by action
-        int[] destinationCols = new int[numAgents]; // column of new cell to become occupied by action
-        int[] boxRows = new int[numAgents]; // current row of box
-        int[] boxCols = new int[numAgents]; // current column of box
-        int[] destinationBoxRows = new int[numAgents]; // destination row of box moved by action
-        int[] destinationBoxCols = new int[numAgents]; // destination column of box moved by action
-
-        //Initialize box with negative values, different from each other.
-        for(int i=-100; i<numAgents-100; i++){
-            destinationBoxRows[i+100] = i;
-            destinationBoxCols[i+100] = i;
-            boxRows[i+100] = -i;
-            boxCols[i+100] = -i;
-        }
-
-        // Collect cells to be occupied and boxes to be moved
+        Expansion scratch = EXPANSION.get();
+        scratch.ensureCapacity(numAgents);
+        this.collectMoves(jointAction, scratch);
+        int[] destinationRows = scratch.destinationRows;
+        int[] destinationCols = scratch.destinationCols;
+
+        OccupancyTable occupancy = scratch.occupancy;
+        occupancy.reset(this.level.numRows * this.level.numCols, numAgents);
+        long inapplicable = 0;
         for (int agent = 0; agent < numAgents; ++agent)
         {
-            Action action = jointAction[agent];
-            int agentRow = this.agentRows[agent];
-            int agentCol = this.agentCols[agent];
-
-            switch (action.type)
+            this.occupy(occupancy, agent, scratch);
+            if (!this.isApplicable(agent, jointAction[agent]))
             {
-                case NoOp:
-                    destinationRows[agent] = agentRow;
-                    destinationCols[agent] = agentCol;
-                    break;
-
-                case Move:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
-                    break;
-                case Push:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
-                    destinationBoxRows[agent] = destinationRows[agent] + action.boxRowDelta;
-                    destinationBoxCols[agent] = destinationCols[agent] + action.boxColDelta;
-                    boxRows[agent] = destinationRows[agent];
-                    boxCols[agent] = destinationCols[agent];
-
-                    break;
-                case Pull:
-                    destinationRows[agent] = agentRow + action.agentRowDelta;
-                    destinationCols[agent] = agentCol + action.agentColDelta;
-                    destinationBoxRows[agent] = agentRow;
-                    destinationBoxCols[agent] = agentCol;
-                    boxRows[agent] = destinationBoxRows[agent] - action.boxRowDelta;
-                    boxCols[agent] = destinationBoxCols[agent] - action.boxColDelta;
-                    break;
+                inapplicable |= 1L << agent;
             }
         }
 
-
-//CHECK DA CONFUSED CHECK DA CONFLIKTEEED
-
+        long allAgents = numAgents == 64 ? -1L : (1L << numAgents) - 1;
         int counter = 0;
         Conflict first_Conflict = null;
-        boolean first_time = true;
+        int firstPair = Integer.MAX_VALUE;
+        int singleAgent = -1;
+        int singlePair = Integer.MAX_VALUE;
         for (int a1 = 0; a1 < numAgents; ++a1)
         {
-            for (int a2 = a1 + 1; a2 < numAgents; ++a2)
+            long later = allAgents & ~((2L << a1) - 1);
+            long conflicting = occupancy.conflicts(a1) & later;
+            counter += Long.bitCount(conflicting);
+            if (conflicting != 0 && first_Conflict == null)
             {
-                /**
-                 * There are three type of Conflicts: Vertex, Edge and Follow.
-                 * We will create each conflict with respect of the constrain that
-                 * we want to resolve it faster.
-                 * First we find the conflicts between agents.
-                 */
-                // AGENT CONFLICTS!!!!
-                //Vertex, edge, follow Conflict
-                if ((destinationRows[a1] == destinationRows[a2] && destinationCols[a1] == destinationCols[a2]) ||
-                        ((destinationRows[a1] == this.agentRows[a2] && destinationCols[a1] == this.agentCols[a2]) &&
-                                (destinationRows[a2] == this.agentRows[a1] && destinationCols[a2] == this.agentCols[a1])) ||
-                        ((destinationRows[a1] == this.agentRows[a2] && destinationCols[a1] == this.agentCols[a2]) ||
-                                (destinationRows[a2] == this.agentRows[a1] && destinationCols[a2] == this.agentCols[a1]))){
-
-                    if(first_time){
-                        first_Conflict = new Conflict((char)(a1+'0'),(char)(a2+'0'),"agent","agent",this.g+1,this.g+1,new Point(destinationRows[a1],destinationCols[a1]),new Point(destinationRows[a2],destinationCols[a2]));
-                        counter += 1;
-                        first_time = false;
-                    } else{
-                        counter +=1;
-                    }
-                }
-                /**
-                 * Next find conflicts between boxes.
-                 */
-                //vertex edge follow
-                else if ((destinationBoxRows[a1] == destinationBoxRows[a2] && destinationBoxCols[a1] == destinationBoxCols[a2]) ||
-                        ((destinationBoxRows[a1] == boxRows[a2] && destinationBoxCols[a1] == boxCols[a2]) &&
-                                (destinationBoxRows[a2] == boxRows[a1] && destinationBoxCols[a2] == boxCols[a1])) ||
-                        ((destinationBoxRows[a1] == boxRows[a2] && destinationBoxCols[a1] == boxCols[a2]) ||
-                                (destinationBoxRows[a2] == boxRows[a1] && destinationBoxCols[a2] == boxCols[a1]))){
-                    if(first_time){
-                        first_Conflict = new Conflict((char)(a1+'0'),(char)(a2+'0'),"agent","agent",this.g+1,this.g+1,new Point(destinationRows[a1],destinationCols[a1]),new Point(destinationRows[a2],destinationCols[a2]));
-                        counter += 1;
-                        first_time = false;
-                    } else{
-                        counter +=1;
-                    }
-                }
-                /**
-                 * Then, find conflicts between boxes and agents.
-                 */
-                //Vertex, edge, follow Conflict
-                else if ((destinationBoxRows[a1] == destinationRows[a2] && destinationBoxCols[a1] == destinationCols[a2]) ||
-                        (destinationBoxRows[a2] == destinationRows[a1] && destinationBoxCols[a2] == destinationCols[a1]) ||
-                        (destinationBoxRows[a1] == this.agentRows[a2] && destinationBoxCols[a1] == this.agentCols[a2] &&
-                                destinationRows[a2] == boxRows[a1] && destinationCols[a2] == boxCols[a1]) ||
-                        (destinationBoxRows[a2] == this.agentRows[a1] && destinationBoxCols[a2] == this.agentCols[a1] &&
-                                destinationRows[a1] == boxRows[a2] && destinationCols[a1] == boxCols[a2]) ||
-                        (destinationBoxRows[a1] == this.agentRows[a2] && destinationBoxCols[a1] == this.agentCols[a2]) ||
-                        (destinationRows[a2] == boxRows[a1] && destinationBoxCols[a2] == boxCols[a1]) ||
-                        (destinationBoxRows[a2] == this.agentRows[a1] && destinationBoxCols[a2] == this.agentCols[a1]) ||
-                        (destinationRows[a1] == boxRows[a2] && destinationBoxCols[a1] == boxCols[a2])){
-                    //System.err.println("10");
-                    //ConflicT ("FollowBoxAgent",a2,a1,timeframe)
-                    //ConflicT ("FollowBoxAgent",a1,a2,timeframe)
-                    if(first_time){
-                        first_Conflict = new Conflict((char)(a1+'0'),(char)(a2+'0'),"agent","agent",this.g+1,this.g+1,new Point(destinationRows[a1],destinationCols[a1]),new Point(destinationRows[a2],destinationCols[a2]));
-                        counter += 1;
-                        first_time = false;
-                    } else{
-                        counter +=1;
-                    }
-                }
-                /**
-                 * Finally, check aplicability.
-                 * We only care to see if there is a
-                 * box there.
-                 */
-                else if(!isApplicable(a1, jointAction[a1]) ||!isApplicable(a2, jointAction[a2])){
-                    ////System.err.println("[" + destinationRows[a1]  + ","  + destinationCols[a1] + "]" + " = " + this.boxes[destinationRows[a1]][destinationCols[a1]] + "... ACTION: " + jointAction[a1].toString());
-                    //System.err.println("11");
-                    if(!isApplicable(a1, jointAction[a1])){
-                        if(first_Conflict == null){
-                            first_Conflict = new Conflict((char)(a1+'0'),"agent",this.g+1,new Point(destinationRows[a1],destinationCols[a1]));
-                            counter++;
-                        }
-                    }
-                    if(!isApplicable(a2, jointAction[a2])) {
-                        if(first_Conflict==null){
-                            first_Conflict = new Conflict((char)(a2+'0'),"agent",this.g+1,new Point(destinationRows[a2],destinationCols[a2]));
-                            counter++;
-                        }
-                    }
+                int a2 = Long.numberOfTrailingZeros(conflicting);
+                first_Conflict = new Conflict((char)(a1+'0'),(char)(a2+'0'),"agent","agent",this.g+1,this.g+1,new Point(destinationRows[a1],destinationCols[a1]),new Point(destinationRows[a2],destinationCols[a2]));
+                firstPair = a1 * numAgents + a2;
+            }
+
+            // First pair that does not conflict but holds an action that is not applicable.
+            if (singleAgent < 0)
+            {
+                long free = later & ~conflicting;
+                long candidates = (inapplicable & (1L << a1)) != 0 ? free : free & inapplicable;
+                if (candidates != 0)
+                {
+                    int a2 = Long.numberOfTrailingZeros(candidates);
+                    singleAgent = (inapplicable & (1L << a1)) != 0 ? a1 : a2;
+                    singlePair = a1 * numAgents + a2;
                 }
             }
         }
 
+        if (singleAgent >= 0 && singlePair < firstPair)
+        {
+            counter++;
+            if (first_Conflict == null)
+            {
+                first_Conflict = new Conflict((char)(singleAgent+'0'),"agent",this.g+1,new Point(destinationRows[singleAgent],destinationCols[singleAgent]));
+            }
+        }
+
         return new State.Pair<>(counter, first_Conflict);
     }
 
 
-    private boolean isNotContrained(Character agent,int row, int col)
+    private boolean isNotContrained(char agent,int row, int col)
     {
         if(this.manage.isEmpty()){
             return true;
         } else{
-            return !this.manage.isAgentConstrained(agent, this.g + 1, new Point(row,col) );
+            return !this.manage.isAgentConstrained(agent, this.g + 1, row, col);
         }
     }
 
     public void getNumOfBoxesWithSameColor(){
         HashMap<Color,Integer> assinged = new HashMap<>();
-        for (int row = 1; row < this.goals.length - 1; row++)
+        for (int row = 1; row < this.level.goals.length - 1; row++)
         {
-            for (int col = 1; col < this.goals[row].length - 1; col++)
+            for (int col = 1; col < this.level.goals[row].length - 1; col++)
             {
-                char goal = this.goals[row][col];
+                char goal = this.level.goals[row][col];
                 if ('A' <= goal && goal <= 'Z')
                 {
                     if(assinged.containsKey(boxColors[goal-'A'])){
@@ -926,4 +1169,39 @@ public class State
             return (first == null ? 0 : first.hashCode()) ^ (second == null ? 0 : second.hashCode());
         }
     }
+
+    // Scratch buffers of getExpandedStates and isConflicting, sized for the largest number of agents seen so far.
+    private static class Expansion
+    {
+        Action[][] applicableActions = new Action[0][];
+        int[] numApplicable = new int[0];
+        Action[] jointAction = new Action[0];
+        int[] actionsPermutation = new int[0];
+        int[] destinationRows = new int[0];
+        int[] destinationCols = new int[0];
+        int[] boxRows = new int[0];
+        int[] boxCols = new int[0];
+        int[] destinationBoxRows = new int[0];
+        int[] destinationBoxCols = new int[0];
+        OccupancyTable occupancy = new OccupancyTable();
+        ArrayList<Action[]> jointActions = new ArrayList<>(64);
+
+        void ensureCapacity(int numAgents)
+        {
+            if (this.numApplicable.length >= numAgents)
+            {
+                return;
+            }
+            this.applicableActions = new Action[numAgents][Action.VALUES.length];
+            this.numApplicable = new int[numAgents];
+            this.jointAction = new Action[numAgents];
+            this.actionsPermutation = new int[numAgents];
+            this.destinationRows = new int[numAgents];
+            this.destinationCols = new int[numAgents];
+            this.boxRows = new int[numAgents];
+            this.boxCols = new int[numAgents];
+            this.destinationBoxRows = new int[numAgents];
+            this.destinationBoxCols = new int[numAgents];
+        }
+    }
 }
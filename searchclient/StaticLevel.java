@@ -0,0 +1,244 @@
+package searchclient;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    The parts of a level that never change while searching: walls, goals and the colors of agents and boxes.
+    A single StaticLevel is shared by every State of a search instead of being copied into each child.
+
+    The arrays must be treated as read-only. The only time the layout changes is when a finished subgoal is
+    turned into a wall (State.setWall), and that produces a new StaticLevel with a fresh version through
+    copy-on-write, so states that still point to the old version are not affected.
+
+    It also holds the box registry of the search. Boxes are numbered in row-major order of the initial
+    state, boxLetters[id] is the letter of box id and boxHomes[id] its initial cell. Cells are flattened
+    as row * numCols + col, and State.boxCells[id] gives the current cell of each box.
+
+    It holds the Zobrist keys used to hash states: one random key per (cell, box letter) and one
+    per (agent, cell). A state's hash is the xor of the keys of everything it contains, which lets a child
+    derive its hash from the parent by xor-ing out the old cells and xor-ing in the new ones.
+
+    Finally it holds an action mask per cell. Bit action.ordinal() is set if an agent standing on the cell
+    can perform the action as far as the walls are concerned: every cell the agent or the box enters, and for
+    a pull the cell the box comes from, is inside the level and not a wall. Whether those cells are free of
+    boxes and agents is left to State.isApplicable. A new wall only changes the masks of the cells at most
+    two steps away, so withWall only recomputes those.
+*/
+public final class StaticLevel
+{
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    // Two states with the same version id are guaranteed to have identical walls and goals.
+    public final int version;
+    public final int numRows;
+    public final int numCols;
+    public final boolean[][] walls;
+    public final char[][] goals;
+    public final Color[] agentColors;
+    public final Color[] boxColors;
+    public final char[] boxLetters;
+    public final int[] boxHomes;
+    private final int[] homeToBox;
+    private final long[] boxKeys;
+    private final long[] agentKeys;
+    private final int[] actionMasks;
+    // Built on first use, see JumpPointSearch.
+    private volatile JumpTable jumpTable;
+
+    // Arguments are not copied, and therefore should not be modified after being passed in.
+    // The box registry is built from the boxes of the initial state.
+    public StaticLevel(boolean[][] walls, char[][] goals, Color[] agentColors, Color[] boxColors, char[][] boxes)
+    {
+        this.version = VERSIONS.incrementAndGet();
+        this.numRows = walls.length;
+        this.numCols = walls[0].length;
+        this.walls = walls;
+        this.goals = goals;
+        this.agentColors = agentColors;
+        this.boxColors = boxColors;
+
+        int numBoxes = 0;
+        for (char[] row : boxes)
+        {
+            for (char box : row)
+            {
+                if ('A' <= box && box <= 'Z')
+                {
+                    ++numBoxes;
+                }
+            }
+        }
+        this.boxLetters = new char[numBoxes];
+        this.boxHomes = new int[numBoxes];
+        this.homeToBox = new int[this.numRows * this.numCols];
+        Arrays.fill(this.homeToBox, -1);
+        int id = 0;
+        for (int row = 0; row < boxes.length; row++)
+        {
+            for (int col = 0; col < boxes[row].length; col++)
+            {
+                char box = boxes[row][col];
+                if ('A' <= box && box <= 'Z')
+                {
+                    this.boxLetters[id] = box;
+                    this.boxHomes[id] = this.cell(row, col);
+                    this.homeToBox[this.boxHomes[id]] = id;
+                    ++id;
+                }
+            }
+        }
+
+        // Fixed seed, so runs are reproducible.
+        SplittableRandom random = new SplittableRandom(1);
+        this.boxKeys = new long[this.numRows * this.numCols * 26];
+        for (int i = 0; i < this.boxKeys.length; i++)
+        {
+            this.boxKeys[i] = random.nextLong();
+        }
+        this.agentKeys = new long[agentColors.length * this.numRows * this.numCols];
+        for (int i = 0; i < this.agentKeys.length; i++)
+        {
+            this.agentKeys[i] = random.nextLong();
+        }
+
+        this.actionMasks = new int[this.numRows * this.numCols];
+        for (int row = 0; row < this.numRows; row++)
+        {
+            for (int col = 0; col < this.numCols; col++)
+            {
+                this.actionMasks[this.cell(row, col)] = this.computeActionMask(row, col);
+            }
+        }
+    }
+
+    private StaticLevel(StaticLevel other, boolean[][] walls, char[][] goals, int[] actionMasks)
+    {
+        this.version = VERSIONS.incrementAndGet();
+        this.numRows = other.numRows;
+        this.numCols = other.numCols;
+        this.walls = walls;
+        this.goals = goals;
+        this.agentColors = other.agentColors;
+        this.boxColors = other.boxColors;
+        this.boxLetters = other.boxLetters;
+        this.boxHomes = other.boxHomes;
+        this.homeToBox = other.homeToBox;
+        this.boxKeys = other.boxKeys;
+        this.agentKeys = other.agentKeys;
+        this.actionMasks = actionMasks;
+    }
+
+    public int cell(int row, int col)
+    {
+        return row * this.numCols + col;
+    }
+
+    public int row(int cell)
+    {
+        return cell / this.numCols;
+    }
+
+    public int col(int cell)
+    {
+        return cell % this.numCols;
+    }
+
+    public long boxKey(int cell, char box)
+    {
+        return this.boxKeys[cell * 26 + (box - 'A')];
+    }
+
+    public long agentKey(int agent, int cell)
+    {
+        return this.agentKeys[agent * this.numRows * this.numCols + cell];
+    }
+
+    public int actionMask(int row, int col)
+    {
+        return this.actionMasks[this.cell(row, col)];
+    }
+
+    // Jump tables of the walls of this version. Two threads may both build them, either result is the same.
+    public JumpTable jumpTable()
+    {
+        JumpTable table = this.jumpTable;
+        if (table == null)
+        {
+            table = new JumpTable(this);
+            this.jumpTable = table;
+        }
+        return table;
+    }
+
+    // Box id of the box that started at (row, col), or -1 if no box started there.
+    public int boxId(int row, int col)
+    {
+        if (row < 0 || row >= this.numRows || col < 0 || col >= this.numCols)
+        {
+            return -1;
+        }
+        return this.homeToBox[this.cell(row, col)];
+    }
+
+    // Returns a new version of the level with a wall at (row, col) and no goal there.
+    // Only the touched row is copied, the other rows are shared with this version.
+    public StaticLevel withWall(int row, int col)
+    {
+        boolean[][] walls = Arrays.copyOf(this.walls, this.walls.length);
+        walls[row] = Arrays.copyOf(this.walls[row], this.walls[row].length);
+        walls[row][col] = true;
+
+        char[][] goals = Arrays.copyOf(this.goals, this.goals.length);
+        goals[row] = Arrays.copyOf(this.goals[row], this.goals[row].length);
+        goals[row][col] = 0;
+
+        StaticLevel level = new StaticLevel(this, walls, goals, Arrays.copyOf(this.actionMasks, this.actionMasks.length));
+        for (int r = Math.max(0, row - 2); r <= Math.min(this.numRows - 1, row + 2); r++)
+        {
+            for (int c = Math.max(0, col - 2); c <= Math.min(this.numCols - 1, col + 2); c++)
+            {
+                level.actionMasks[level.cell(r, c)] = level.computeActionMask(r, c);
+            }
+        }
+        return level;
+    }
+
+    private int computeActionMask(int row, int col)
+    {
+        int mask = 0;
+        for (Action action : Action.VALUES)
+        {
+            int agentRow = row + action.agentRowDelta;
+            int agentCol = col + action.agentColDelta;
+            boolean possible;
+            switch (action.type)
+            {
+                case Move:
+                    possible = this.isOpen(agentRow, agentCol);
+                    break;
+                case Push:
+                    possible = this.isOpen(agentRow, agentCol)
+                            && this.isOpen(agentRow + action.boxRowDelta, agentCol + action.boxColDelta);
+                    break;
+                case Pull:
+                    possible = this.isOpen(agentRow, agentCol)
+                            && this.isOpen(row - action.boxRowDelta, col - action.boxColDelta);
+                    break;
+                default:
+                    possible = true;
+            }
+            if (possible)
+            {
+                mask |= 1 << action.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    private boolean isOpen(int row, int col)
+    {
+        return row >= 0 && row < this.numRows && col >= 0 && col < this.walls[row].length && !this.walls[row][col];
+    }
+}
@@ -0,0 +1,240 @@
+package searchclient;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Open-addressing hash table of packed state keys kept outside the Java heap.
+
+    Entries are appended to one direct buffer: the key (keyLength longs) followed by payloadBytes bytes that
+    the owner can use freely, so an entry index stays valid for the lifetime of the table. A second direct
+    buffer holds the index, an int per slot with entry + 1 (0 is an empty slot), searched with linear probing
+    and doubled when it gets half full. Nothing in here is visible to the garbage collector, which keeps
+    GC pauses independent of the number of visited states and lets the heap be much smaller.
+
+    Direct memory is limited by -XX:MaxDirectMemorySize (by default the same as -Xmx).
+*/
+public final class VisitedTable
+{
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong LIVE_ENTRIES = new AtomicLong();
+    private static final AtomicLong LIVE_BYTES = new AtomicLong();
+
+    private final int keyLength;
+    private final int stride;
+    private final Usage usage = new Usage();
+
+    private ByteBuffer entries;
+    private int capacity;
+    private int size;
+
+    private ByteBuffer index;
+    private int mask;
+
+    public VisitedTable(int keyLength, int payloadBytes)
+    {
+        this.keyLength = keyLength;
+        // Keep entries 4-byte aligned so payload ints are aligned too.
+        this.stride = (keyLength * Long.BYTES + payloadBytes + 3) & ~3;
+        this.capacity = 1 << 12;
+        this.entries = allocate((long) this.capacity * this.stride);
+        this.index = allocate((long) this.capacity * 2 * Integer.BYTES);
+        this.mask = this.capacity * 2 - 1;
+        this.usage.update(0, this.footprint());
+        CLEANER.register(this, this.usage);
+    }
+
+    // Appends the key and returns its new entry index, or -(index + 1) if the key is already in the table.
+    public int insert(long[] key)
+    {
+        int hash = hash(key);
+        int slot = this.find(key, hash);
+        int existing = this.index.getInt(slot * Integer.BYTES) - 1;
+        if (existing >= 0)
+        {
+            return -(existing + 1);
+        }
+
+        if (this.size == this.capacity)
+        {
+            this.growEntries();
+        }
+        int entry = this.size++;
+        int offset = entry * this.stride;
+        for (int i = 0; i < this.keyLength; i++)
+        {
+            this.entries.putLong(offset + i * Long.BYTES, key[i]);
+        }
+        this.index.putInt(slot * Integer.BYTES, entry + 1);
+        if (this.size * 2 > this.mask + 1)
+        {
+            this.growIndex();
+            this.usage.update(this.size, this.footprint());
+        }
+        else if ((this.size & 1023) == 0)
+        {
+            this.usage.update(this.size, this.footprint());
+        }
+        return entry;
+    }
+
+    // Entry index of the key, or -1 if it is not in the table.
+    public int lookup(long[] key)
+    {
+        return this.index.getInt(this.find(key, hash(key)) * Integer.BYTES) - 1;
+    }
+
+    // Copies the key of an entry into key.
+    public void key(int entry, long[] key)
+    {
+        int offset = entry * this.stride;
+        for (int i = 0; i < this.keyLength; i++)
+        {
+            key[i] = this.entries.getLong(offset + i * Long.BYTES);
+        }
+    }
+
+    public void putInt(int entry, int offset, int value)
+    {
+        this.entries.putInt(this.payload(entry) + offset, value);
+    }
+
+    public int getInt(int entry, int offset)
+    {
+        return this.entries.getInt(this.payload(entry) + offset);
+    }
+
+    public void putByte(int entry, int offset, byte value)
+    {
+        this.entries.put(this.payload(entry) + offset, value);
+    }
+
+    public byte getByte(int entry, int offset)
+    {
+        return this.entries.get(this.payload(entry) + offset);
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    // Off-heap bytes held by this table.
+    public long footprint()
+    {
+        return (long) this.entries.capacity() + this.index.capacity();
+    }
+
+    // Entries and off-heap bytes of all tables that have not been garbage collected yet.
+    public static long liveEntries()
+    {
+        return LIVE_ENTRIES.get();
+    }
+
+    public static long liveBytes()
+    {
+        return LIVE_BYTES.get();
+    }
+
+    private int payload(int entry)
+    {
+        return entry * this.stride + this.keyLength * Long.BYTES;
+    }
+
+    private int find(long[] key, int hash)
+    {
+        int slot = hash & this.mask;
+        while (true)
+        {
+            int entry = this.index.getInt(slot * Integer.BYTES) - 1;
+            if (entry < 0 || this.keyEquals(entry, key))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private boolean keyEquals(int entry, long[] key)
+    {
+        int offset = entry * this.stride;
+        for (int i = 0; i < this.keyLength; i++)
+        {
+            if (this.entries.getLong(offset + i * Long.BYTES) != key[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(long[] key)
+    {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long k : key)
+        {
+            h = (h ^ k) * 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void growEntries()
+    {
+        int capacity = this.capacity * 2;
+        ByteBuffer entries = allocate((long) capacity * this.stride);
+        entries.put(0, this.entries, 0, this.size * this.stride);
+        this.entries = entries;
+        this.capacity = capacity;
+    }
+
+    private void growIndex()
+    {
+        int slots = (this.mask + 1) * 2;
+        this.index = allocate((long) slots * Integer.BYTES);
+        this.mask = slots - 1;
+        long[] key = new long[this.keyLength];
+        for (int entry = 0; entry < this.size; entry++)
+        {
+            int offset = entry * this.stride;
+            for (int i = 0; i < this.keyLength; i++)
+            {
+                key[i] = this.entries.getLong(offset + i * Long.BYTES);
+            }
+            this.index.putInt(this.find(key, hash(key)) * Integer.BYTES, entry + 1);
+        }
+    }
+
+    private static ByteBuffer allocate(long bytes)
+    {
+        if (bytes > Integer.MAX_VALUE)
+        {
+            throw new OutOfMemoryError("Visited table does not fit in a single direct buffer.");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    // Keeps the global counters right, also once the table itself is unreachable and cleaned.
+    private static class Usage
+            implements Runnable
+    {
+        private long entries;
+        private long bytes;
+
+        synchronized void update(long entries, long bytes)
+        {
+            LIVE_ENTRIES.addAndGet(entries - this.entries);
+            LIVE_BYTES.addAndGet(bytes - this.bytes);
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run()
+        {
+            this.update(0, 0);
+        }
+    }
+}